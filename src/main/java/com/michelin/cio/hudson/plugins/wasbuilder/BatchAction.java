@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Util;
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports, on the build page, the runs of a script in batch mode (once per
+ * parameter set, in a single wsadmin JVM; cf. {@code scripts/batch.py}).
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class BatchAction implements Action {
+
+    private final List<BatchRun> runs;
+    private final String script;
+
+    public BatchAction(String script, List<BatchRun> runs) {
+        this.runs = new ArrayList<BatchRun>(runs);
+        this.script = script;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public List<BatchRun> getRuns() {
+        return Collections.unmodifiableList(runs);
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * The run of the script for one parameter set.
+     */
+    public static class BatchRun {
+
+        /** Duration of the run, in ms. */
+        private final long duration;
+        private final String parameters;
+        private final boolean success;
+
+        public BatchRun(String parameters, boolean success, long duration) {
+            this.duration = duration;
+            this.parameters = parameters;
+            this.success = success;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(duration);
+        }
+
+        public String getParameters() {
+            return parameters;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+    }
+
+}
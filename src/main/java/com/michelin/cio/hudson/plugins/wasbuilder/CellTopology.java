@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Topology of a WAS cell (nodes, servers, clusters and applications), as
+ * discovered by the {@code scripts/topology.py} script.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class CellTopology {
+
+    private final static String MARKER_APP = "APP";
+    private final static String MARKER_CLUSTER = "CLUSTER";
+    private final static String MARKER_NODE = "NODE";
+    private final static String MARKER_SERVER = "SERVER";
+
+    private final SortedSet<String> applications;
+    private final SortedSet<String> clusters;
+    private final SortedSet<String> nodes;
+    /** Servers, as {@code <node>/<server>}. */
+    private final SortedSet<String> servers;
+    private final long timestamp;
+
+    CellTopology(MarkerCollector collector) {
+        this.applications = toSet(collector, MARKER_APP);
+        this.clusters = toSet(collector, MARKER_CLUSTER);
+        this.nodes = toSet(collector, MARKER_NODE);
+        this.servers = toSet(collector, MARKER_SERVER);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public SortedSet<String> getApplications() {
+        return applications;
+    }
+
+    public SortedSet<String> getClusters() {
+        return clusters;
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    public SortedSet<String> getServers() {
+        return servers;
+    }
+
+    /**
+     * Returns when the topology has been discovered.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns {@code true} if the cell contains a server with the given name,
+     * which may be qualified by its node ({@code <node>/<server>}).
+     */
+    public boolean hasServer(String server) {
+        if(server.indexOf('/') >= 0) {
+            return servers.contains(server);
+        }
+        for(String qualifiedServer: servers) {
+            if(qualifiedServer.endsWith('/' + server)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SortedSet<String> toSet(MarkerCollector collector, String type) {
+        return Collections.unmodifiableSortedSet(new TreeSet<String>(collector.getMarkers(type)));
+    }
+
+}
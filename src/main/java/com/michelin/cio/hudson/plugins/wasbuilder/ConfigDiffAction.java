@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports, on the build page, the differences between the configuration of a
+ * cell and the desired state applied by a {@link WASConfigStep}.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ConfigDiffAction implements Action {
+
+    /** {@code false} if the differences have only been reported (dry run). */
+    private final boolean applied;
+    private final List<ConfigDiff> diffs;
+    private final String wasServerName;
+
+    public ConfigDiffAction(String wasServerName, List<ConfigDiff> diffs, boolean applied) {
+        this.applied = applied;
+        this.diffs = new ArrayList<ConfigDiff>(diffs);
+        this.wasServerName = wasServerName;
+    }
+
+    public List<ConfigDiff> getDiffs() {
+        return Collections.unmodifiableList(diffs);
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    public String getWasServerName() {
+        return wasServerName;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * The difference of one attribute of a configuration object.
+     */
+    public static class ConfigDiff {
+
+        private final String attribute;
+        /** {@code true} if the object doesn't exist yet. */
+        private final boolean creation;
+        private final String current;
+        private final String desired;
+        private final String path;
+
+        public ConfigDiff(String path, String attribute, String current, String desired, boolean creation) {
+            this.attribute = attribute;
+            this.creation = creation;
+            this.current = current;
+            this.desired = desired;
+            this.path = path;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public String getCurrent() {
+            return current;
+        }
+
+        public String getDesired() {
+            return desired;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isCreation() {
+            return creation;
+        }
+
+    }
+
+}
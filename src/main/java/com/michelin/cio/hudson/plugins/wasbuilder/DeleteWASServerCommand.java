@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import hudson.model.Hudson;
+import org.kohsuke.args4j.Argument;
+
+/**
+ * CLI command removing a WAS server.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+@Extension
+public class DeleteWASServerCommand extends CLICommand {
+
+    @Argument(metaVar="NAME", usage="Name of the WAS server to remove", required=true)
+    public String name;
+
+    @Override
+    public String getShortDescription() {
+        return "Removes a WAS server";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+        if(!WASServersAction.getDescriptor().removeServer(name)) {
+            stderr.println("No such WAS server: " + name);
+            return -1;
+        }
+        return 0;
+    }
+
+}
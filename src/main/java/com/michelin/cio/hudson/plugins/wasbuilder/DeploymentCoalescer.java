@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Util;
+import hudson.model.BooleanParameterValue;
+import hudson.model.Hudson;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.StringParameterValue;
+import hudson.tasks.Builder;
+import hudson.util.VariableResolver;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Finds out if a {@link WASBuildStep} is superseded by a queued build which
+ * will run a {@link WASBuildStep} against the same server with the same
+ * coalescing key (typically the name of the application being deployed): In
+ * that case, there's no point in deploying something which is going to be
+ * overwritten soon.
+ *
+ * <p>The coalescing key of a queued build is expanded using the parameters of
+ * the build only, since the other variables aren't known yet. For the same
+ * reason, a queued build step with a {@code runIf} condition only supersedes
+ * the current one if its condition refers to parameters of the queued build
+ * only, and is true for them: A queued build step which is going to be
+ * skipped doesn't supersede anything.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class DeploymentCoalescer {
+
+    private DeploymentCoalescer() {
+    }
+
+    /**
+     * Returns the queued item which supersedes a build step run against the
+     * given server with the given (expanded) coalescing key, or {@code null} if
+     * there's none.
+     */
+    public static Queue.Item findSupersedingItem(String wasServerName, String key) {
+        for(Queue.Item item: Hudson.getInstance().getQueue().getItems()) {
+            if(!(item.task instanceof Project)) {
+                continue;
+            }
+
+            Map<String,String> parameters = null;
+            for(Builder builder: ((Project<?, ?>) item.task).getBuilders()) {
+                if(!(builder instanceof WASBuildStep)) {
+                    continue;
+                }
+                WASBuildStep step = (WASBuildStep) builder;
+                if(StringUtils.isEmpty(step.getCoalesceKey()) || !wasServerName.equals(step.getWasServerName())) {
+                    continue;
+                }
+
+                if(parameters == null) {
+                    parameters = getParameters(item);
+                }
+                if(key.equals(Util.replaceMacro(step.getCoalesceKey(), parameters)) && willRun(step, item, parameters)) {
+                    return item;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the {@code runIf} condition of the given build
+     * step is known to be true for the given queued build.
+     */
+    private static boolean willRun(WASBuildStep step, Queue.Item item, Map<String,String> parameters) {
+        RunIfExpression runIf = step.getRunIfExpression();
+        if(runIf == null) {
+            return true;
+        }
+
+        if(!parameters.keySet().containsAll(runIf.getNames())) {
+            // the condition depends on variables which aren't known yet
+            return false;
+        }
+        return runIf.evaluate(item.getActions(ParametersAction.class), new VariableResolver.ByMap<String>(parameters), Collections.<String,String>emptyMap());
+    }
+
+    private static Map<String,String> getParameters(Queue.Item item) {
+        Map<String,String> parameters = new HashMap<String,String>();
+        ParametersAction parametersAction = item.getAction(ParametersAction.class);
+        if(parametersAction != null) {
+            for(ParameterValue parameter: parametersAction.getParameters()) {
+                if(parameter instanceof StringParameterValue) {
+                    parameters.put(parameter.getName(), ((StringParameterValue) parameter).value);
+                }
+                else if(parameter instanceof BooleanParameterValue) {
+                    parameters.put(parameter.getName(), Boolean.toString(((BooleanParameterValue) parameter).value));
+                }
+            }
+        }
+        return parameters;
+    }
+
+}
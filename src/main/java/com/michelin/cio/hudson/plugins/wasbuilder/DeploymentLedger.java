@@ -0,0 +1,426 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.model.Hudson;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Records the deployments of applications performed by {@link WASBuildStep}s,
+ * so that questions such as "which version of this application is on this
+ * server, and since when?" can be answered without loading any build.
+ *
+ * <p>Deployments are appended, one JSON object per line, to {@code
+ * $HUDSON_HOME/was-builder/deployments.log}; The file is read once, at the
+ * first query, to build an in-memory index by server then application, which
+ * holds the latest {@link #HISTORY_SIZE} deployments of each application (plus
+ * its latest successful deployment, whatever its age). Once the file holds
+ * {@link #COMPACTION_THRESHOLD} lines more than the index, it is compacted:
+ * It is rewritten with the deployments of the index only, so that it stays
+ * bounded.</p>
+ *
+ * <p>The latest deployment of an application is its latest successful one;
+ * The deployments which have failed since then are available separately.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class DeploymentLedger {
+
+    private final static String FILE = "was-builder/deployments.log";
+    /** Number of deployments per server and application kept in memory. */
+    public final static int HISTORY_SIZE = 100;
+    /**
+     * Number of lines of the file which aren't in the index beyond which the
+     * file is compacted.
+     */
+    public final static int COMPACTION_THRESHOLD = 1000;
+
+    private static DeploymentLedger instance;
+
+    private final File file;
+    /**
+     * Deployments per server name, then per application name, the latest
+     * first; {@code null} until the file has been read.
+     */
+    private Map<String,Map<String,LinkedList<Deployment>>> index;
+    /** Number of deployments in {@link #index}. */
+    private int indexSize;
+    /** Number of lines of the file. */
+    private int lineCount;
+
+    DeploymentLedger(File file) {
+        this.file = file;
+    }
+
+    public static synchronized DeploymentLedger get() {
+        if(instance == null) {
+            instance = new DeploymentLedger(new File(Hudson.getInstance().getRootDir(), FILE));
+        }
+        return instance;
+    }
+
+    /**
+     * Appends a deployment to the ledger.
+     */
+    public synchronized void record(Deployment deployment) {
+        getIndex();
+        addToIndex(deployment);
+
+        try {
+            file.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            try {
+                writer.write(deployment.toJSON().toString());
+                writer.write('\n');
+            }
+            finally {
+                writer.close();
+            }
+            lineCount++;
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.WARNING, "Failed to record the deployment of " + deployment.getApplication() + " in " + file, ioe);
+        }
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Returns the names of the servers applications have been deployed to.
+     */
+    public synchronized List<String> getServers() {
+        return new ArrayList<String>(getIndex().keySet());
+    }
+
+    /**
+     * Returns the latest successful deployment of each application deployed
+     * to the given server, sorted by application name.
+     */
+    public synchronized List<Deployment> getLatest(String serverName) {
+        List<Deployment> latest = new ArrayList<Deployment>();
+        Map<String,LinkedList<Deployment>> applications = getIndex().get(serverName);
+        if(applications != null) {
+            for(LinkedList<Deployment> deployments: applications.values()) {
+                Deployment deployment = getLatestSuccess(deployments);
+                if(deployment != null) {
+                    latest.add(deployment);
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the latest successful deployment of an application to a server
+     * ({@code null} if the application has never been deployed successfully
+     * to it).
+     */
+    public synchronized Deployment getLatest(String serverName, String application) {
+        Map<String,LinkedList<Deployment>> applications = getIndex().get(serverName);
+        if(applications == null || !applications.containsKey(application)) {
+            return null;
+        }
+        return getLatestSuccess(applications.get(application));
+    }
+
+    /**
+     * Returns the deployments to the given server which have failed since the
+     * latest successful deployment of their application, sorted by
+     * application name, then the latest first.
+     */
+    public synchronized List<Deployment> getFailures(String serverName) {
+        List<Deployment> failures = new ArrayList<Deployment>();
+        Map<String,LinkedList<Deployment>> applications = getIndex().get(serverName);
+        if(applications != null) {
+            for(LinkedList<Deployment> deployments: applications.values()) {
+                for(Deployment deployment: deployments) {
+                    if(deployment.isSuccess()) {
+                        break;
+                    }
+                    failures.add(deployment);
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Returns the latest deployments of an application to a server, the latest
+     * first.
+     */
+    public synchronized List<Deployment> getHistory(String serverName, String application) {
+        Map<String,LinkedList<Deployment>> applications = getIndex().get(serverName);
+        if(applications == null || !applications.containsKey(application)) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Deployment>(applications.get(application));
+    }
+
+    private Map<String,Map<String,LinkedList<Deployment>>> getIndex() {
+        if(index == null) {
+            index = new TreeMap<String,Map<String,LinkedList<Deployment>>>();
+            if(file.exists()) {
+                load();
+                compactIfNeeded();
+            }
+        }
+        return index;
+    }
+
+    private static Deployment getLatestSuccess(List<Deployment> deployments) {
+        for(Deployment deployment: deployments) {
+            if(deployment.isSuccess()) {
+                return deployment;
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    lineCount++;
+                    if(line.trim().length() == 0) {
+                        continue;
+                    }
+                    try {
+                        addToIndex(Deployment.fromJSON(JSONObject.fromObject(line)));
+                    }
+                    catch(JSONException je) {
+                        // a line which has been partially written
+                        LOGGER.log(Level.FINE, "Skipping an invalid line of " + file, je);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, ioe);
+        }
+    }
+
+    private void addToIndex(Deployment deployment) {
+        Map<String,LinkedList<Deployment>> applications = index.get(deployment.getServer());
+        if(applications == null) {
+            applications = new TreeMap<String,LinkedList<Deployment>>();
+            index.put(deployment.getServer(), applications);
+        }
+        LinkedList<Deployment> deployments = applications.get(deployment.getApplication());
+        if(deployments == null) {
+            deployments = new LinkedList<Deployment>();
+            applications.put(deployment.getApplication(), deployments);
+        }
+        deployments.addFirst(deployment);
+        indexSize++;
+
+        if(deployments.size() > HISTORY_SIZE) {
+            // the oldest deployment goes, unless it is the latest successful one
+            Deployment latestSuccess = getLatestSuccess(deployments);
+            ListIterator<Deployment> oldest = deployments.listIterator(deployments.size());
+            while(oldest.hasPrevious()) {
+                if(oldest.previous() != latestSuccess) {
+                    oldest.remove();
+                    indexSize--;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with the deployments of the index only, if it holds
+     * too many deployments which have been dropped from the index.
+     */
+    private void compactIfNeeded() {
+        if(lineCount - indexSize < COMPACTION_THRESHOLD) {
+            return;
+        }
+
+        File compacted = new File(file.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(compacted), "UTF-8");
+            try {
+                for(Map<String,LinkedList<Deployment>> applications: index.values()) {
+                    for(LinkedList<Deployment> deployments: applications.values()) {
+                        // the oldest first, as they were appended
+                        ListIterator<Deployment> oldest = deployments.listIterator(deployments.size());
+                        while(oldest.hasPrevious()) {
+                            writer.write(oldest.previous().toJSON().toString());
+                            writer.write('\n');
+                        }
+                    }
+                }
+            }
+            finally {
+                writer.close();
+            }
+
+            if(!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+                throw new IOException("Can't rename " + compacted + " to " + file);
+            }
+            lineCount = indexSize;
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.WARNING, "Failed to compact " + file, ioe);
+            compacted.delete();
+        }
+    }
+
+    /**
+     * The deployment of one application to one server.
+     */
+    public static class Deployment {
+
+        private final String application;
+        private final String digest;
+        /** Duration of the build step, in ms. */
+        private final long duration;
+        private final int number;
+        private final String project;
+        private final String server;
+        private final boolean success;
+        private final long timestamp;
+        private final String version;
+
+        /**
+         * @param project the full name of the project of the build
+         * @param number the number of the build
+         * @param version the version of the application ({@code null} if unknown)
+         * @param digest the digest of the application ({@code null} if unknown)
+         */
+        public Deployment(String server, String application, String version, String digest, String project, int number, long timestamp, long duration, boolean success) {
+            this.application = application;
+            this.digest = digest;
+            this.duration = duration;
+            this.number = number;
+            this.project = project;
+            this.server = server;
+            this.success = success;
+            this.timestamp = timestamp;
+            this.version = version;
+        }
+
+        public String getApplication() {
+            return application;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public String getServer() {
+            return server;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * Returns when the deployment has completed.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject()
+                    .element("server", server)
+                    .element("application", application);
+            if(version != null) {
+                json.element("version", version);
+            }
+            if(digest != null) {
+                json.element("digest", digest);
+            }
+            return json
+                    .element("project", project)
+                    .element("number", number)
+                    .element("timestamp", timestamp)
+                    .element("duration", duration)
+                    .element("success", success);
+        }
+
+        public static Deployment fromJSON(JSONObject json) {
+            if(!json.has("server") || !json.has("application")) {
+                throw new JSONException("A deployment must have a server and an application");
+            }
+            return new Deployment(
+                    json.getString("server"),
+                    json.getString("application"),
+                    json.has("version") ? json.getString("version") : null,
+                    json.has("digest") ? json.getString("digest") : null,
+                    json.optString("project"),
+                    json.optInt("number"),
+                    json.optLong("timestamp"),
+                    json.optLong("duration"),
+                    json.optBoolean("success"));
+        }
+
+    }
+
+    private final static Logger LOGGER = Logger.getLogger(DeploymentLedger.class.getName());
+
+}
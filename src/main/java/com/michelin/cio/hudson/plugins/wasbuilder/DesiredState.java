@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The desired state of (a part of) the configuration of a cell, as read by
+ * {@link WASConfigStep}.
+ *
+ * <p>The desired state is made of sections, one per configuration object: The
+ * header of each section is the containment path of the object, as understood
+ * by {@code AdminConfig.getid()}, and its content is the attributes of the
+ * object, one per line:</p>
+ * <pre>
+ * # JVM of server1
+ * [/Node:node1/Server:server1/JavaProcessDef:/JavaVirtualMachine:/]
+ * initialHeapSize = 512
+ * maximumHeapSize = 1024
+ * </pre>
+ *
+ * <p>Lines starting with {@code #} are comments. Only the attributes which are
+ * listed are compared with (and applied to) the configuration.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class DesiredState {
+
+    private final Map<String,ConfigObject> objects = new LinkedHashMap<String,ConfigObject>();
+
+    private DesiredState() {
+    }
+
+    public List<ConfigObject> getObjects() {
+        return Collections.unmodifiableList(new ArrayList<ConfigObject>(objects.values()));
+    }
+
+    /**
+     * Returns the desired state as a list of {@code [path, parent path, type,
+     * name, {attribute: value}]} lists, to be passed to {@code
+     * scripts/applyConfig.py}.
+     */
+    public List<List<Object>> toScriptVariable() {
+        List<List<Object>> variable = new ArrayList<List<Object>>();
+        for(ConfigObject object: objects.values()) {
+            variable.add(Arrays.<Object>asList(object.getPath(), object.getParentPath(), object.getType(), object.getName(), object.getAttributes()));
+        }
+        return variable;
+    }
+
+    /**
+     * Parses a desired state; An {@link IllegalArgumentException} is thrown if
+     * it isn't valid.
+     */
+    public static DesiredState parse(String content) {
+        DesiredState state = new DesiredState();
+        ConfigObject object = null;
+
+        String[] lines = content.split("\r\n|\r|\n");
+        for(int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1].trim();
+            if(line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            if(line.startsWith("[")) {
+                if(!line.endsWith("]")) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": missing ']'");
+                }
+                String path = line.substring(1, line.length() - 1).trim();
+                if(!path.endsWith("/")) {
+                    path += '/';
+                }
+                object = state.objects.get(path);
+                if(object == null) {
+                    object = ConfigObject.fromPath(path, lineNumber);
+                    state.objects.put(path, object);
+                }
+                continue;
+            }
+
+            int equals = line.indexOf('=');
+            if(equals <= 0) {
+                throw new IllegalArgumentException("line " + lineNumber + ": expected <attribute> = <value>");
+            }
+            if(object == null) {
+                throw new IllegalArgumentException("line " + lineNumber + ": attribute outside of any [containment path] section");
+            }
+            object.attributes.put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+        }
+
+        return state;
+    }
+
+    /**
+     * A configuration object and its desired attributes.
+     */
+    public static class ConfigObject {
+
+        private final Map<String,String> attributes = new LinkedHashMap<String,String>();
+        private final String name;
+        private final String parentPath;
+        private final String path;
+        private final String type;
+
+        private ConfigObject(String path, String parentPath, String type, String name) {
+            this.name = name;
+            this.parentPath = parentPath;
+            this.path = path;
+            this.type = type;
+        }
+
+        public Map<String,String> getAttributes() {
+            return Collections.unmodifiableMap(attributes);
+        }
+
+        /**
+         * Returns the name of the object (an empty string for objects, such as
+         * {@code JavaVirtualMachine}, which have no name).
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getParentPath() {
+            return parentPath;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Parses a containment path, such as {@code /Cell:c/JDBCProvider:p/}.
+         */
+        private static ConfigObject fromPath(String path, int lineNumber) {
+            if(!path.startsWith("/") || path.length() < 2) {
+                throw new IllegalArgumentException("line " + lineNumber + ": the containment path must start with '/'");
+            }
+            String[] segments = path.substring(1, path.length() - 1).split("/");
+            for(String segment: segments) {
+                if(segment.indexOf(':') <= 0) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": expected <type>:<name> instead of '" + segment + "'");
+                }
+            }
+
+            String last = segments[segments.length - 1];
+            String parentPath = path.substring(0, path.length() - last.length() - 1);
+            return new ConfigObject(
+                    path,
+                    parentPath.length() > 1 ? parentPath : null,
+                    last.substring(0, last.indexOf(':')),
+                    last.substring(last.indexOf(':') + 1));
+        }
+
+    }
+
+}
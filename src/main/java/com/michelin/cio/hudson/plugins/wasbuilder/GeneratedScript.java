@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Jython script, bundled with this plug-in (in the {@code scripts} folder of
+ * its resources), which is run by wsadmin on behalf of the user.
+ *
+ * <p>Variables can be passed to the script: They are defined, as Python
+ * literals, at the top of the script.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class GeneratedScript {
+
+    private final String name;
+    private final Map<String,Object> variables = new LinkedHashMap<String,Object>();
+
+    /**
+     * @param name the name of the script in the {@code scripts} folder
+     */
+    public GeneratedScript(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Defines a variable for the script; Supported values are {@link String}s,
+     * {@link Number}s, {@link Boolean}s, {@link Collection}s and {@link Map}s
+     * of those.
+     */
+    public GeneratedScript set(String variable, Object value) {
+        variables.put(variable, value);
+        return this;
+    }
+
+    /**
+     * Returns the full content of the script, variables included.
+     */
+    public String getContent() throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append("# Generated by the WAS builder plugin\n");
+        for(Map.Entry<String,Object> variable: variables.entrySet()) {
+            content.append(variable.getKey()).append(" = ").append(toPython(variable.getValue())).append('\n');
+        }
+        content.append('\n');
+
+        InputStream in = GeneratedScript.class.getResourceAsStream("scripts/" + name);
+        if(in == null) {
+            throw new IOException("Can't find the bundled script " + name);
+        }
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            char[] buffer = new char[4096];
+            int read;
+            while((read = reader.read(buffer)) >= 0) {
+                content.append(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * Writes the script to a temporary file of {@code workspace}, runs it
+     * through wsadmin on {@code node}, and deletes it; Returns {@code true} if
+     * wsadmin has succeeded.
+     */
+    public boolean run(FilePath workspace, Node node, Launcher launcher, TaskListener listener, EnvVars env, Wsadmin wsadmin, OutputStream out) throws IOException, InterruptedException {
+        ArgumentListBuilder args = wsadmin.createArgs(node, launcher, listener, env, WASBuildStep.LANG_JYTHON);
+        if(args == null) {
+            return false;
+        }
+
+        FilePath scriptFile = write(workspace);
+        try {
+            args.add("-f");
+            args.add(scriptFile);
+            return wsadmin.run(args, launcher, listener, env, out);
+        }
+        finally {
+            scriptFile.delete();
+        }
+    }
+
+    /**
+     * Writes the script to a temporary file of {@code dir}, which is returned:
+     * It's up to the caller to delete it.
+     */
+    public FilePath write(FilePath dir) throws IOException, InterruptedException {
+        return dir.createTextTempFile("wasbuilder", ".py", getContent(), false);
+    }
+
+    /**
+     * Converts the given value to a Python literal.
+     */
+    static String toPython(Object value) {
+        if(value == null) {
+            return "None";
+        }
+        if(value instanceof Boolean) {
+            return ((Boolean) value) ? "1" : "0";
+        }
+        if(value instanceof Number) {
+            return value.toString();
+        }
+        if(value instanceof Collection) {
+            StringBuilder list = new StringBuilder("[");
+            for(Iterator it = ((Collection) value).iterator(); it.hasNext(); ) {
+                list.append(toPython(it.next()));
+                if(it.hasNext()) {
+                    list.append(", ");
+                }
+            }
+            return list.append(']').toString();
+        }
+        if(value instanceof Map) {
+            StringBuilder dict = new StringBuilder("{");
+            for(Iterator it = ((Map) value).entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                dict.append(toPython(entry.getKey())).append(": ").append(toPython(entry.getValue()));
+                if(it.hasNext()) {
+                    dict.append(", ");
+                }
+            }
+            return dict.append('}').toString();
+        }
+
+        String s = value.toString();
+        StringBuilder literal = new StringBuilder("u'");
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '\\' || c == '\'') {
+                literal.append('\\').append(c);
+            }
+            else if(c < 0x20 || c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        return literal.append('\'').toString();
+    }
+
+}
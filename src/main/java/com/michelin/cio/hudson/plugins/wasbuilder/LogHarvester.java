@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Collects the logs (SystemOut, SystemErr and FFDC files) of all the
+ * application servers of the cell of a {@link WASServer} and archives them,
+ * compressed, with the build (in the {@code wasLogs} folder of its artifacts).
+ *
+ * <p>The paths of the logs are resolved through wsadmin (cf. the {@code
+ * scripts/logPaths.py} script); They are then read from the node the build
+ * runs on, which must thus have access to them (e.g. through a shared file
+ * system): Logs which can't be reached are reported and skipped.</p>
+ *
+ * <p>Only the last bytes (the "window") of SystemOut/SystemErr, and the FFDC
+ * files written since the beginning of the build, are collected. The files are
+ * fetched concurrently and the total size of the archived files of a build (by
+ * all its build steps), that is to say the number of compressed bytes written,
+ * is capped: Each file is compressed aside first, and is only archived if it
+ * fits in what remains of the limit; Otherwise, it's skipped (and reported),
+ * so that no archive is ever cut short.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class LogHarvester {
+
+    public final static String ARCHIVE_FOLDER = "wasLogs";
+    /** Default limit, in MB, of the bytes collected for a build. */
+    public final static int DEFAULT_LIMIT = 20;
+
+    private final static String FFDC_MARKER = "FFDC";
+    private final static String LOG_MARKER = "LOG";
+    private final static int THREADS = 4;
+    /** Returned by {@link Fetch} when the file can't be reached. */
+    private final static long NOT_REACHABLE = -1;
+    /** Returned by {@link Fetch} when the file doesn't fit in the budget. */
+    private final static long SKIPPED = -2;
+    /** Size, in bytes, of the window of SystemOut/SystemErr to collect. */
+    private final static long WINDOW_SIZE = Long.getLong(LogHarvester.class.getName() + ".windowSize", 1024) * 1024L;
+
+    /** Maximum number of compressed bytes to archive for a build. */
+    private final long limit;
+
+    /**
+     * @param limit the maximum number of compressed MB to archive for a build
+     * ({@link #DEFAULT_LIMIT} is used if not strictly positive)
+     */
+    public LogHarvester(int limit) {
+        this.limit = (limit > 0 ? limit : DEFAULT_LIMIT) * 1024L * 1024L;
+    }
+
+    /**
+     * Collects the logs; Failures are reported but don't affect the build
+     * result.
+     */
+    public void harvest(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, EnvVars env, Wsadmin wsadmin) throws InterruptedException {
+        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("HarvestingLogs"));
+
+        File archiveFolder = new File(build.getArtifactsDir(), ARCHIVE_FOLDER);
+        // the logs archived by the previous build steps count too (they're
+        // compressed, just like the bytes counted against the budget)
+        AtomicLong budget = new AtomicLong(limit - sizeOf(archiveFolder));
+
+        try {
+            MarkerCollector collector = new MarkerCollector(listener.getLogger());
+            boolean success;
+            try {
+                success = new GeneratedScript("logPaths.py").run(build.getWorkspace(), build.getBuiltOn(), launcher, listener, env, wsadmin, collector);
+            }
+            finally {
+                collector.close();
+            }
+            if(!success) {
+                listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("LogHarvestingFailed", "wsadmin"));
+                return;
+            }
+
+            // SystemOut/SystemErr go first, so that they are collected before
+            // the limit is reached
+            List<Fetch> fetches = new ArrayList<Fetch>();
+            for(String marker: collector.getMarkers(LOG_MARKER)) {
+                // <node>/<server> <path>
+                String[] fields = marker.split(" ", 2);
+                if(fields.length == 2) {
+                    fetches.add(new Fetch(fields[0], new FilePath(launcher.getChannel(), fields[1]), archiveFolder, WINDOW_SIZE, budget));
+                }
+            }
+            for(String marker: collector.getMarkers(FFDC_MARKER)) {
+                // <node>/<server> <folder>
+                String[] fields = marker.split(" ", 2);
+                if(fields.length != 2 || fields[0].indexOf('/') < 0) {
+                    continue;
+                }
+                FilePath folder = new FilePath(launcher.getChannel(), fields[1]);
+                if(!folder.isDirectory()) {
+                    listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("LogNotReachable", fields[0], fields[1]));
+                    continue;
+                }
+                String server = fields[0].substring(fields[0].indexOf('/') + 1);
+                for(String path: folder.act(new ListRecentFiles(server, build.getTimeInMillis()))) {
+                    fetches.add(new Fetch(fields[0] + "/ffdc", new FilePath(launcher.getChannel(), path), archiveFolder, Long.MAX_VALUE, budget));
+                }
+            }
+
+            if(fetches.isEmpty()) {
+                return;
+            }
+
+            int count = 0;
+            int skipped = 0;
+            long size = 0;
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(THREADS, fetches.size()));
+            try {
+                List<Future<Long>> results = executor.invokeAll(fetches);
+                for(int i = 0; i < results.size(); i++) {
+                    Fetch fetch = fetches.get(i);
+                    try {
+                        long fetched = results.get(i).get();
+                        if(fetched > 0) {
+                            count++;
+                            size += fetched;
+                        }
+                        else if(fetched == NOT_REACHABLE) {
+                            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("LogNotReachable", fetch.member, fetch.file.getRemote()));
+                        }
+                        else if(fetched == SKIPPED) {
+                            skipped++;
+                            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("LogSkipped", fetch.member, fetch.file.getRemote()));
+                        }
+                    }
+                    catch(ExecutionException ee) {
+                        listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("LogHarvestingFailed", fetch.file.getRemote() + ": " + ee.getCause()));
+                    }
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("LogsHarvested", count, size / 1024, ARCHIVE_FOLDER));
+            if(skipped > 0) {
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("LogHarvestLimitReached", limit / 1024 / 1024));
+            }
+        }
+        catch(IOException ioe) {
+            listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("LogHarvestingFailed", ioe));
+        }
+    }
+
+    /**
+     * Returns the total size of the files of a folder, subfolders included.
+     */
+    private static long sizeOf(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if(files != null) {
+            for(File file: files) {
+                size += file.isDirectory() ? sizeOf(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Makes a node, server or file name usable as a path element.
+     */
+    private static String toPathElement(String name) {
+        String element = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return element.startsWith(".") ? '_' + element : element;
+    }
+
+    /**
+     * Takes {@code length} bytes from the budget if they all fit in it;
+     * Returns {@code false}, leaving the budget untouched, otherwise.
+     */
+    static boolean reserve(AtomicLong budget, long length) {
+        while(true) {
+            long available = budget.get();
+            if(length > available) {
+                return false;
+            }
+            if(budget.compareAndSet(available, available - length)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Fetches the end of a log file to {@code <archive folder>/<node>/<server>/
+     * <file>.gz} if, once compressed, it fits in the remaining budget; Returns
+     * the number of compressed bytes written, {@link #NOT_REACHABLE} if the
+     * file can't be reached or {@link #SKIPPED} if it doesn't fit.
+     */
+    private static class Fetch implements Callable<Long> {
+
+        private final File archiveFolder;
+        private final AtomicLong budget;
+        private final FilePath file;
+        private final String member;
+        private final long window;
+
+        Fetch(String member, FilePath file, File archiveFolder, long window, AtomicLong budget) {
+            this.archiveFolder = archiveFolder;
+            this.budget = budget;
+            this.file = file;
+            this.member = member;
+            this.window = window;
+        }
+
+        public Long call() throws IOException, InterruptedException {
+            if(!file.exists()) {
+                return NOT_REACHABLE;
+            }
+            if(budget.get() <= 0) {
+                return SKIPPED;
+            }
+
+            File folder = archiveFolder;
+            for(String element: member.split("/")) {
+                folder = new File(folder, toPathElement(element));
+            }
+            folder.mkdirs();
+
+            // the compressed size is only known once the whole file has been
+            // compressed: it's written aside until it's known to fit
+            File archive = new File(folder, toPathElement(file.getName()) + ".gz");
+            File partial = new File(folder, archive.getName() + ".part");
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                file.act(new TraceFileManager.CompressTail(Math.min(file.length(), window), new RemoteOutputStream(out)));
+                out.close();
+
+                long size = partial.length();
+                if(!reserve(budget, size)) {
+                    return SKIPPED;
+                }
+                archive.delete();
+                if(!partial.renameTo(archive)) {
+                    budget.addAndGet(size);
+                    throw new IOException("Failed to rename " + partial + " to " + archive.getName());
+                }
+                return size;
+            }
+            finally {
+                out.close();
+                partial.delete();
+            }
+        }
+
+    }
+
+    /**
+     * Lists the files of an FFDC folder which relate to a server and have been
+     * modified since a given time.
+     */
+    private static class ListRecentFiles implements FileCallable<List<String>> {
+
+        private final String server;
+        private final long since;
+
+        ListRecentFiles(String server, long since) {
+            this.server = server;
+            this.since = since;
+        }
+
+        public List<String> invoke(File f, VirtualChannel channel) throws IOException {
+            List<String> paths = new ArrayList<String>();
+            File[] files = f.listFiles();
+            if(files != null) {
+                for(File file: files) {
+                    // FFDC files are named <server>_<id>_<timestamp>_<n>.txt
+                    // or <server>_exception.log
+                    if(file.isFile() && file.getName().startsWith(server + '_') && file.lastModified() >= since) {
+                        paths.add(file.getPath());
+                    }
+                }
+            }
+            return paths;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
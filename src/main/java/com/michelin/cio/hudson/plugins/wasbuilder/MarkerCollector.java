@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.console.LineTransformationOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Forwards the output of wsadmin while collecting the lines which start with
+ * {@link #PREFIX}: Those lines are printed by the scripts generated by this
+ * plug-in to report their results.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class MarkerCollector extends LineTransformationOutputStream {
+
+    public final static String PREFIX = "WASBUILDER-";
+
+    private final List<String> markers = new ArrayList<String>();
+    private final OutputStream out;
+
+    public MarkerCollector(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        String line = trimEOL(new String(b, 0, len));
+        if(line.startsWith(PREFIX)) {
+            synchronized(markers) {
+                markers.add(line.substring(PREFIX.length()));
+            }
+        }
+        out.write(b, 0, len);
+    }
+
+    /**
+     * Returns the collected lines, without {@link #PREFIX}, which start with
+     * the given marker type (followed by a space); The marker type itself is
+     * removed too.
+     */
+    public List<String> getMarkers(String type) {
+        List<String> matching = new ArrayList<String>();
+        synchronized(markers) {
+            for(String marker: markers) {
+                if(marker.startsWith(type + ' ')) {
+                    matching.add(marker.substring(type.length() + 1));
+                }
+            }
+        }
+        return Collections.unmodifiableList(matching);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        out.flush();
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Util;
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports, on the build page, the synchronization of the nodes performed by a
+ * {@link WASBuildStep} (cf. {@link NodeSynchronizer}).
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class NodeSyncAction implements Action {
+
+    /** Overall duration of the synchronization, in ms. */
+    private final long duration;
+    private final List<NodeSyncResult> results;
+
+    public NodeSyncAction(List<NodeSyncResult> results, long duration) {
+        this.duration = duration;
+        this.results = new ArrayList<NodeSyncResult>(results);
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public String getDurationString() {
+        return Util.getTimeSpanString(duration);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public List<NodeSyncResult> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * The synchronization of one node.
+     */
+    public static class NodeSyncResult {
+
+        private final String node;
+        /** Duration of the synchronization, in ms. */
+        private final long duration;
+        private final boolean synced;
+
+        public NodeSyncResult(String node, boolean synced, long duration) {
+            this.node = node;
+            this.duration = duration;
+            this.synced = synced;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(duration);
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public boolean isSynced() {
+            return synced;
+        }
+
+    }
+
+}
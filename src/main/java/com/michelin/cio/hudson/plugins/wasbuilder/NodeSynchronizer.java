@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Synchronizes, in parallel, all the nodes of the cell of a {@link WASServer}
+ * (cf. the {@code scripts/syncNodes.py} script), and reports the per-node
+ * timings on the build through a {@link NodeSyncAction}.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class NodeSynchronizer {
+
+    public final static int DEFAULT_CONCURRENCY = 4;
+    private final static String MARKER = "NODESYNC";
+
+    private final int concurrency;
+
+    /**
+     * @param concurrency the maximum number of nodes to synchronize at the same
+     * time ({@link #DEFAULT_CONCURRENCY} is used if not strictly positive)
+     */
+    public NodeSynchronizer(int concurrency) {
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+    }
+
+    /**
+     * Synchronizes the nodes; Returns {@code true} if all of them have been
+     * successfully synchronized.
+     */
+    public boolean synchronize(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, EnvVars env, Wsadmin wsadmin) throws IOException, InterruptedException {
+        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("SynchronizingNodes", concurrency));
+
+        long start = System.currentTimeMillis();
+        MarkerCollector collector = new MarkerCollector(listener.getLogger());
+        boolean success;
+        try {
+            success = new GeneratedScript("syncNodes.py").set("CONCURRENCY", concurrency).run(build.getWorkspace(), build.getBuiltOn(), launcher, listener, env, wsadmin, collector);
+        }
+        finally {
+            collector.close();
+        }
+
+        List<NodeSyncAction.NodeSyncResult> results = new ArrayList<NodeSyncAction.NodeSyncResult>();
+        for(String marker: collector.getMarkers(MARKER)) {
+            // <node> <result> <duration>
+            String[] fields = marker.split(" ");
+            if(fields.length != 3) {
+                continue;
+            }
+            long duration;
+            try {
+                duration = Long.parseLong(fields[2]);
+            }
+            catch(NumberFormatException nfe) {
+                continue;
+            }
+            NodeSyncAction.NodeSyncResult result = new NodeSyncAction.NodeSyncResult(fields[0], Boolean.parseBoolean(fields[1]), duration);
+            if(!result.isSynced()) {
+                listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("NodeNotSynchronized", result.getNode()));
+                success = false;
+            }
+            results.add(result);
+        }
+
+        build.addAction(new NodeSyncAction(results, System.currentTimeMillis() - start));
+
+        if(!success) {
+            listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NodeSyncFailed"));
+        }
+        return success;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Waits, from a single wsadmin session, for applications to be ready (that is
+ * to say distributed and started) and, optionally, for an HTTP URL to answer
+ * (cf. the {@code scripts/waitForApps.py} script).
+ *
+ * <p>The polling delay adapts itself: It starts short, is doubled each time
+ * nothing has changed and is reset as soon as something has become ready, so
+ * that the build goes on as soon as possible without hammering the server.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ReadinessGate {
+
+    /** Default maximum time to wait, in seconds. */
+    public final static int DEFAULT_TIMEOUT = 300;
+
+    private final List<String> applications;
+    /** Maximum time to wait, in seconds. */
+    private final int timeout;
+    private final String url;
+
+    /**
+     * @param timeout the maximum time to wait, in seconds ({@link
+     * #DEFAULT_TIMEOUT} is used if not strictly positive)
+     */
+    public ReadinessGate(String[] applications, String url, int timeout) {
+        this.applications = Arrays.asList(applications);
+        this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+        this.url = url;
+    }
+
+    /**
+     * Waits for the applications and the URL; Returns {@code true} if all of
+     * them are ready before the timeout.
+     */
+    public boolean await(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, EnvVars env, Wsadmin wsadmin) throws IOException, InterruptedException {
+        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("WaitingForApplications", applications, timeout));
+
+        MarkerCollector collector = new MarkerCollector(listener.getLogger());
+        boolean success;
+        try {
+            GeneratedScript script = new GeneratedScript("waitForApps.py")
+                    .set("APPLICATIONS", applications)
+                    .set("URL", url)
+                    .set("TIMEOUT", timeout);
+            success = script.run(build.getWorkspace(), build.getBuiltOn(), launcher, listener, env, wsadmin, collector);
+        }
+        finally {
+            collector.close();
+        }
+
+        for(String ready: collector.getMarkers("READY")) {
+            String[] fields = ready.split(" ");
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("ApplicationReady", fields[0], fields.length > 1 ? fields[1] : "?"));
+        }
+        for(String notReady: collector.getMarkers("NOTREADY")) {
+            listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("ApplicationNotReady", notReady, timeout));
+            success = false;
+        }
+
+        return success;
+    }
+
+}
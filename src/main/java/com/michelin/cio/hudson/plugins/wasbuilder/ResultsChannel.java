@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * A file into which wsadmin scripts write structured results, so that they're
+ * attached to the build (cf. {@link WASResultsAction}) without having to be
+ * extracted from the console output.
+ *
+ * <p>The path of the file is given to the scripts through the {@link #ENV_VAR}
+ * environment variable and the {@link #PROPERTY} Java system property (the
+ * latter being the only option with the JDK 1.4 of WAS 6.0). Each line of
+ * the file is either a {@code key=value} pair or a JSON object, whose members
+ * are all recorded; Other lines are ignored. The file is read, on the node it
+ * lives on, once wsadmin has exited.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ResultsChannel {
+
+    public final static String ENV_VAR = "WAS_BUILDER_RESULTS";
+    public final static String PROPERTY = "wasbuilder.results";
+
+    /** Maximum number of results recorded by a build step. */
+    private final static int MAX_RESULTS = 1000;
+    /** Maximum length of the recorded values. */
+    private final static int MAX_VALUE_LENGTH = 4096;
+
+    private ResultsChannel() {
+    }
+
+    /**
+     * Creates an empty results file in {@code dir}.
+     */
+    public static FilePath create(FilePath dir) throws IOException, InterruptedException {
+        return dir.createTempFile("wasbuilder", ".results");
+    }
+
+    /**
+     * Returns the results written into {@code file}, in the order they were
+     * (last) written.
+     */
+    public static LinkedHashMap<String,String> read(FilePath file) throws IOException, InterruptedException {
+        if(!file.exists()) {
+            return new LinkedHashMap<String,String>();
+        }
+        return file.act(new Read());
+    }
+
+    /**
+     * Parses a line of the results file into {@code results}; Lines which are
+     * neither a {@code key=value} pair nor a JSON object are ignored, as are
+     * new keys once {@link #MAX_RESULTS} have been recorded.
+     */
+    static void parse(String line, LinkedHashMap<String,String> results) {
+        line = line.trim();
+        if(line.startsWith("{")) {
+            try {
+                JSONObject json = JSONObject.fromObject(line);
+                for(Iterator keys = json.keys(); keys.hasNext(); ) {
+                    String key = String.valueOf(keys.next());
+                    put(results, key, String.valueOf(json.get(key)));
+                }
+            }
+            catch(JSONException je) {
+                // not a JSON object: ignored
+            }
+        }
+        else {
+            int equals = line.indexOf('=');
+            if(equals > 0) {
+                put(results, line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+            }
+        }
+    }
+
+    private static void put(LinkedHashMap<String,String> results, String key, String value) {
+        if(!results.containsKey(key) && results.size() >= MAX_RESULTS) {
+            return;
+        }
+        if(value.length() > MAX_VALUE_LENGTH) {
+            value = value.substring(0, MAX_VALUE_LENGTH);
+        }
+        // the latest value wins, and keeps the latest position
+        results.remove(key);
+        results.put(key, value);
+    }
+
+    /**
+     * Parses the results file line by line, so that only the results (and not
+     * the whole file) are sent back to the master.
+     */
+    static class Read implements FileCallable<LinkedHashMap<String,String>> {
+
+        public LinkedHashMap<String,String> invoke(File f, VirtualChannel channel) throws IOException {
+            LinkedHashMap<String,String> results = new LinkedHashMap<String,String>();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    parse(line, results);
+                }
+            }
+            finally {
+                reader.close();
+            }
+
+            return results;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
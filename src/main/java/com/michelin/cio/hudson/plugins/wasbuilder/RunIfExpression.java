@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.model.BooleanParameterValue;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.util.VariableResolver;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled {@code runIf} condition of a {@link WASBuildStep}.
+ *
+ * <p>The condition is a boolean expression over parameters and variables:</p>
+ * <ul>
+ * <li>{@code NAME} is true if {@code NAME} is a boolean parameter which is
+ * {@code true}, else if it is a build variable which has a value, else if it
+ * is an environment variable (whatever its value): A condition made of a
+ * single name thus behaves as {@code runIf} always did;</li>
+ * <li>{@code $NAME} and {@code ${NAME}} are the same as {@code NAME};</li>
+ * <li>{@code NAME == 'value'} and {@code NAME != 'value'} compare the value of
+ * {@code NAME} (an empty string if it isn't defined) with a quoted string or
+ * with the value of another name;</li>
+ * <li>{@code !}, {@code &&}, {@code ||} and parentheses combine conditions,
+ * with the usual precedence.</li>
+ * </ul>
+ *
+ * <p>A {@code runIf} which isn't a valid condition is still evaluated, as a
+ * single name, the way {@code runIf} was evaluated before conditions were
+ * introduced (cf. {@link #compileLeniently(String)}).</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class RunIfExpression {
+
+    private final Condition condition;
+    /**
+     * Why the expression couldn't be compiled, if it has been compiled as a
+     * single name.
+     */
+    private final String error;
+    private final String expression;
+    /** Names of the parameters and variables the condition refers to. */
+    private final Set<String> names;
+
+    private RunIfExpression(String expression, Condition condition, Set<String> names, String error) {
+        this.condition = condition;
+        this.error = error;
+        this.expression = expression;
+        this.names = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Compiles a condition; An {@link IllegalArgumentException} is thrown if
+     * it isn't valid.
+     */
+    public static RunIfExpression compile(String expression) {
+        Parser parser = new Parser(expression);
+        Condition condition = parser.parseOr();
+        parser.skipWhitespaces();
+        if(parser.position < expression.length()) {
+            throw parser.error("unexpected '" + expression.charAt(parser.position) + "'");
+        }
+        return new RunIfExpression(expression, condition, parser.names, null);
+    }
+
+    /**
+     * Compiles a condition; If it isn't valid, it is compiled as a single
+     * name, as {@code runIf} was understood before conditions were introduced
+     * (cf. {@link #getError()}).
+     */
+    public static RunIfExpression compileLeniently(String expression) {
+        try {
+            return compile(expression);
+        }
+        catch(IllegalArgumentException iae) {
+            return new RunIfExpression(expression, new Operand(expression, false), Collections.singleton(expression), iae.getMessage());
+        }
+    }
+
+    /**
+     * Returns why the condition isn't valid if it has been compiled as a
+     * single name by {@link #compileLeniently(String)}, {@code null}
+     * otherwise.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the names of the parameters and variables the condition refers
+     * to.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Evaluates the condition against the parameters of a build, its build
+     * variables and its environment.
+     */
+    public boolean evaluate(List<ParametersAction> parametersActions, VariableResolver<String> varResolver, Map<String,String> env) {
+        return condition.isTrue(new Variables(parametersActions, varResolver, env));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * The parameters and variables a condition is evaluated against; Boolean
+     * parameters are indexed by name once per evaluation.
+     */
+    private static class Variables {
+
+        private final Map<String,Boolean> booleanParameters = new HashMap<String,Boolean>();
+        private final Map<String,String> env;
+        private final VariableResolver<String> varResolver;
+
+        Variables(List<ParametersAction> parametersActions, VariableResolver<String> varResolver, Map<String,String> env) {
+            this.env = env;
+            this.varResolver = varResolver;
+            if(parametersActions != null) {
+                for(ParametersAction action: parametersActions) {
+                    List<ParameterValue> parameters = action.getParameters();
+                    if(parameters == null) {
+                        continue;
+                    }
+                    for(ParameterValue parameter: parameters) {
+                        // the first boolean parameter with a given name wins
+                        if(parameter instanceof BooleanParameterValue && !booleanParameters.containsKey(parameter.getName())) {
+                            booleanParameters.put(parameter.getName(), ((BooleanParameterValue) parameter).value);
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean isSet(String name) {
+            Boolean booleanParameter = booleanParameters.get(name);
+            if(booleanParameter != null) {
+                return booleanParameter;
+            }
+            String value = varResolver.resolve(name);
+            if(value != null) {
+                return value.trim().length() > 0;
+            }
+            return env.containsKey(name);
+        }
+
+        String getValue(String name) {
+            Boolean booleanParameter = booleanParameters.get(name);
+            if(booleanParameter != null) {
+                return booleanParameter.toString();
+            }
+            String value = varResolver.resolve(name);
+            if(value == null) {
+                value = env.get(name);
+            }
+            return value != null ? value : "";
+        }
+
+    }
+
+    private interface Condition {
+        boolean isTrue(Variables variables);
+    }
+
+    /**
+     * A name or a quoted string: Either a condition by itself or one side of a
+     * comparison.
+     */
+    private static class Operand implements Condition {
+
+        /** {@code true} for quoted strings. */
+        private final boolean literal;
+        private final String text;
+
+        Operand(String text, boolean literal) {
+            this.literal = literal;
+            this.text = text;
+        }
+
+        public boolean isTrue(Variables variables) {
+            return literal ? text.length() > 0 : variables.isSet(text);
+        }
+
+        String getValue(Variables variables) {
+            return literal ? text : variables.getValue(text);
+        }
+
+    }
+
+    /**
+     * Recursive descent parser; The grammar is:
+     * <pre>
+     * or      := and ('||' and)*
+     * and     := not ('&amp;&amp;' not)*
+     * not     := '!' not | primary
+     * primary := '(' or ')' | operand (('==' | '!=') operand)?
+     * operand := name | '$' name | '${' name '}' | 'string' | "string"
+     * </pre>
+     */
+    private static class Parser {
+
+        private final String expression;
+        private final Set<String> names = new HashSet<String>();
+        private int position;
+
+        Parser(String expression) {
+            this.expression = expression;
+        }
+
+        Condition parseOr() {
+            Condition condition = parseAnd();
+            while(consume("||")) {
+                final Condition left = condition;
+                final Condition right = parseAnd();
+                condition = new Condition() {
+                    public boolean isTrue(Variables variables) {
+                        return left.isTrue(variables) || right.isTrue(variables);
+                    }
+                };
+            }
+            return condition;
+        }
+
+        Condition parseAnd() {
+            Condition condition = parseNot();
+            while(consume("&&")) {
+                final Condition left = condition;
+                final Condition right = parseNot();
+                condition = new Condition() {
+                    public boolean isTrue(Variables variables) {
+                        return left.isTrue(variables) && right.isTrue(variables);
+                    }
+                };
+            }
+            return condition;
+        }
+
+        Condition parseNot() {
+            skipWhitespaces();
+            if(!lookingAt("!=") && consume("!")) {
+                final Condition negated = parseNot();
+                return new Condition() {
+                    public boolean isTrue(Variables variables) {
+                        return !negated.isTrue(variables);
+                    }
+                };
+            }
+            return parsePrimary();
+        }
+
+        Condition parsePrimary() {
+            if(consume("(")) {
+                Condition condition = parseOr();
+                if(!consume(")")) {
+                    throw error("expected ')'");
+                }
+                return condition;
+            }
+
+            final Operand left = parseOperand();
+            final boolean equals;
+            if(consume("==")) {
+                equals = true;
+            }
+            else if(consume("!=")) {
+                equals = false;
+            }
+            else {
+                return left;
+            }
+            final Operand right = parseOperand();
+            return new Condition() {
+                public boolean isTrue(Variables variables) {
+                    return left.getValue(variables).equals(right.getValue(variables)) == equals;
+                }
+            };
+        }
+
+        Operand parseOperand() {
+            skipWhitespaces();
+            if(position >= expression.length()) {
+                throw error("unexpected end of the expression");
+            }
+
+            char c = expression.charAt(position);
+            if(c == '\'' || c == '"') {
+                int end = expression.indexOf(c, position + 1);
+                if(end < 0) {
+                    throw error("unterminated string");
+                }
+                String text = expression.substring(position + 1, end);
+                position = end + 1;
+                return new Operand(text, true);
+            }
+
+            // $NAME and ${NAME} are accepted too, since this is how variables
+            // are referred to in the other fields
+            boolean braces = false;
+            if(c == '$') {
+                position++;
+                braces = consume("{");
+            }
+
+            int start = position;
+            while(position < expression.length() && isNameChar(expression.charAt(position))) {
+                position++;
+            }
+            if(start == position) {
+                throw error("expected a name or a quoted string instead of '" + (position < expression.length() ? expression.charAt(position) : c) + "'");
+            }
+            String name = expression.substring(start, position);
+            if(braces && !consume("}")) {
+                throw error("expected '}'");
+            }
+            names.add(name);
+            return new Operand(name, false);
+        }
+
+        void skipWhitespaces() {
+            while(position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("column " + (position + 1) + ": " + message);
+        }
+
+        private boolean consume(String token) {
+            if(lookingAt(token)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean lookingAt(String token) {
+            skipWhitespaces();
+            return expression.startsWith(token, position);
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+        }
+
+    }
+
+}
@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Performs a lightweight syntax check of Jython and Jacl scripts, so that
+ * obvious errors (unbalanced brackets, braces or quotes, unterminated strings,
+ * inconsistent indentation, ...) are caught before spending time starting
+ * wsadmin and connecting to the server.
+ *
+ * <p>This is not a full parser: Only errors that the Jython/Jacl interpreters
+ * would reject before running anything are reported, so a script which passes
+ * the check may still fail at run-time.</p>
+ *
+ * <p>Results are cached, per JVM, by the digest of the script.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ScriptChecker {
+
+    private final static int CACHE_SIZE = 256;
+    /** Returned value for scripts with no error (the cache can't hold nulls). */
+    private final static String NO_ERROR = "";
+
+    private final static Map<String,String> CACHE = Collections.synchronizedMap(new LinkedHashMap<String,String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private ScriptChecker() {
+    }
+
+    /**
+     * Checks the specified script, returning a description of the first error
+     * found or {@code null} if no error has been found.
+     */
+    public static String check(String language, String script) {
+        String key = language + ':' + Util.getDigestOf(script);
+        String error = CACHE.get(key);
+        if(error == null) {
+            if(WASBuildStep.LANG_JACL.equals(language)) {
+                error = checkJacl(script);
+            }
+            else {
+                error = checkJython(script);
+            }
+            if(error == null) {
+                error = NO_ERROR;
+            }
+            CACHE.put(key, error);
+        }
+        return error.length() == 0 ? null : error;
+    }
+
+    /**
+     * Checks a Jython script: Strings, brackets and indentation are verified.
+     */
+    static String checkJython(String script) {
+        Stack<Character> brackets = new Stack<Character>();
+        Stack<Integer> bracketLines = new Stack<Integer>();
+        Stack<Integer> indents = new Stack<Integer>();
+        indents.push(0);
+
+        String tripleQuote = null;  // not null when inside a triple-quoted string
+        int tripleQuoteLine = 0;
+        boolean continuation = false; // true if the previous line ended with '\'
+        boolean blockExpected = false;  // true if the previous logical line ended with ':'
+
+        String[] lines = script.split("\r\n|\r|\n", -1);
+        for(int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1];
+            int i = 0;
+
+            // --- indentation (only at the beginning of logical lines) ---
+
+            if(tripleQuote == null && brackets.isEmpty() && !continuation) {
+                int indent = 0;
+                while(i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t' || line.charAt(i) == '\f')) {
+                    if(line.charAt(i) == '\t') {
+                        indent = (indent / 8 + 1) * 8;
+                    }
+                    else if(line.charAt(i) == ' ') {
+                        indent++;
+                    }
+                    i++;
+                }
+                if(i == line.length() || line.charAt(i) == '#') {
+                    // blank lines and comments don't count
+                    continue;
+                }
+
+                if(indent > indents.peek()) {
+                    if(!blockExpected) {
+                        return error(lineNumber, "unexpected indent");
+                    }
+                    indents.push(indent);
+                }
+                else {
+                    if(blockExpected) {
+                        return error(lineNumber, "expected an indented block");
+                    }
+                    while(indent < indents.peek()) {
+                        indents.pop();
+                    }
+                    if(indent != indents.peek()) {
+                        return error(lineNumber, "unindent does not match any outer indentation level");
+                    }
+                }
+            }
+
+            // --- tokens ---
+
+            char lastSignificant = 0;
+            continuation = false;
+            while(i < line.length()) {
+                char c = line.charAt(i);
+
+                if(tripleQuote != null) {
+                    if(c == '\\') {
+                        i += 2;
+                        continue;
+                    }
+                    if(line.startsWith(tripleQuote, i)) {
+                        tripleQuote = null;
+                        lastSignificant = c;
+                        i += 3;
+                        continue;
+                    }
+                    i++;
+                    continue;
+                }
+
+                if(c == '#') {
+                    break;
+                }
+                else if(c == '\'' || c == '"') {
+                    String quote = String.valueOf(c);
+                    if(line.startsWith(quote + quote + quote, i)) {
+                        tripleQuote = quote + quote + quote;
+                        tripleQuoteLine = lineNumber;
+                        i += 3;
+                        continue;
+                    }
+                    // single-line string
+                    i++;
+                    boolean closed = false;
+                    while(i < line.length()) {
+                        char s = line.charAt(i);
+                        if(s == '\\') {
+                            if(i == line.length() - 1) {
+                                break;
+                            }
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        if(s == c) {
+                            closed = true;
+                            break;
+                        }
+                    }
+                    if(!closed) {
+                        if(line.endsWith("\\")) {
+                            // a string continued on the next line: we don't
+                            // go further in that case
+                            return null;
+                        }
+                        return error(lineNumber, "EOL while scanning string literal");
+                    }
+                    lastSignificant = c;
+                    continue;
+                }
+                else if(c == '(' || c == '[' || c == '{') {
+                    brackets.push(c);
+                    bracketLines.push(lineNumber);
+                }
+                else if(c == ')' || c == ']' || c == '}') {
+                    if(brackets.isEmpty()) {
+                        return error(lineNumber, "unmatched '" + c + "'");
+                    }
+                    char opening = brackets.pop();
+                    bracketLines.pop();
+                    if((opening == '(' && c != ')') || (opening == '[' && c != ']') || (opening == '{' && c != '}')) {
+                        return error(lineNumber, "'" + opening + "' closed by '" + c + "'");
+                    }
+                }
+                else if(c == '\\' && i == line.length() - 1) {
+                    continuation = true;
+                    break;
+                }
+
+                if(!Character.isWhitespace(c)) {
+                    lastSignificant = c;
+                }
+                i++;
+            }
+
+            if(tripleQuote == null && brackets.isEmpty() && !continuation) {
+                blockExpected = lastSignificant == ':';
+            }
+        }
+
+        if(tripleQuote != null) {
+            return error(tripleQuoteLine, "EOF while scanning triple-quoted string");
+        }
+        if(!brackets.isEmpty()) {
+            return error(bracketLines.peek(), "'" + brackets.peek() + "' was never closed");
+        }
+        if(blockExpected) {
+            return error(lines.length, "expected an indented block");
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks a Jacl (Tcl) script: Braces, brackets and quotes are verified.
+     */
+    static String checkJacl(String script) {
+        // each context is one of '{', '[' or '"'
+        Stack<Character> contexts = new Stack<Character>();
+        Stack<Integer> contextLines = new Stack<Integer>();
+
+        int lineNumber = 1;
+        boolean commandStart = true;
+        boolean wordStart = true;
+        boolean wordEnd = false;    // true right after a closing brace/quote
+        char wordEndChar = 0;
+
+        for(int i = 0; i < script.length(); i++) {
+            char c = script.charAt(i);
+            char context = contexts.isEmpty() ? 0 : contexts.peek();
+
+            if(c == '\\') {
+                if(i + 1 < script.length() && script.charAt(i + 1) == '\n') {
+                    lineNumber++;
+                }
+                i++;
+                commandStart = false;
+                wordStart = false;
+                wordEnd = false;
+                continue;
+            }
+
+            if(wordEnd) {
+                // Tcl doesn't allow anything right after a closing brace/quote
+                // which ends a word
+                wordEnd = false;
+                if(!Character.isWhitespace(c) && c != ';' && !(c == ']' && context == '[')) {
+                    return error(lineNumber, "extra characters after close-" + (wordEndChar == '{' ? "brace" : "quote"));
+                }
+            }
+
+            if(c == '\n') {
+                lineNumber++;
+            }
+
+            if(context == '{') {
+                if(c == '{') {
+                    contexts.push(c);
+                    contextLines.push(lineNumber);
+                }
+                else if(c == '}') {
+                    contexts.pop();
+                    contextLines.pop();
+                    if(contexts.isEmpty() || contexts.peek() != '{') {
+                        wordEnd = contexts.isEmpty() || contexts.peek() != '"';
+                        wordEndChar = '{';
+                    }
+                }
+                continue;
+            }
+
+            if(context == '"') {
+                if(c == '"') {
+                    contexts.pop();
+                    contextLines.pop();
+                    wordEnd = true;
+                    wordEndChar = '"';
+                }
+                else if(c == '[') {
+                    contexts.push(c);
+                    contextLines.push(lineNumber);
+                    commandStart = true;
+                    wordStart = true;
+                }
+                continue;
+            }
+
+            // top level or command substitution
+            if(commandStart && c == '#') {
+                // comment: skipped up to the end of the line
+                while(i + 1 < script.length() && script.charAt(i + 1) != '\n') {
+                    if(script.charAt(i + 1) == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                continue;
+            }
+
+            if(c == '\n' || c == ';') {
+                commandStart = true;
+                wordStart = true;
+            }
+            else if(Character.isWhitespace(c)) {
+                wordStart = true;
+            }
+            else {
+                if(wordStart && (c == '{' || c == '"')) {
+                    contexts.push(c);
+                    contextLines.push(lineNumber);
+                }
+                else if(c == '[') {
+                    contexts.push(c);
+                    contextLines.push(lineNumber);
+                    commandStart = true;
+                    wordStart = true;
+                    continue;
+                }
+                else if(c == ']' && context == '[') {
+                    contexts.pop();
+                    contextLines.pop();
+                }
+                commandStart = false;
+                wordStart = false;
+            }
+        }
+
+        if(!contexts.isEmpty()) {
+            char context = contexts.peek();
+            String missing = context == '{' ? "close-brace" : context == '[' ? "close-bracket" : "\"";
+            return error(contextLines.peek(), "missing " + missing);
+        }
+
+        return null;
+    }
+
+    private static String error(int line, String message) {
+        return "line " + line + ": " + message;
+    }
+
+    /**
+     * Checks a script file on the node it lives on.
+     */
+    public static class CheckFile implements FileCallable<String> {
+
+        private final String language;
+
+        public CheckFile(String language) {
+            this.language = language;
+        }
+
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            StringBuilder script = new StringBuilder((int) f.length());
+            InputStream in = new FileInputStream(f);
+            try {
+                Reader reader = new InputStreamReader(in);
+                char[] buffer = new char[8192];
+                int read;
+                while((read = reader.read(buffer)) >= 0) {
+                    script.append(buffer, 0, read);
+                }
+            }
+            finally {
+                in.close();
+            }
+            return check(language, script.toString());
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.util.TimeUnit2;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records, for each WAS server and each node, the time it takes to connect to
+ * the server from the node, and whether wsadmin could be found on the node.
+ *
+ * <p>These statistics are used by {@link ServerAffinityDispatcher} to steer the
+ * builds using a WAS server to the nodes which are the closest to it. They are
+ * updated in memory by each build step, and persisted in {@code
+ * $HUDSON_HOME/was-builder-affinity.xml} at most once a minute (cf. {@link
+ * Saver}), since they don't need to survive a restart accurately.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ServerAffinity {
+
+    private final static int CONNECT_TIMEOUT = 5000;
+    /** Weight, in 1/4, of the former latency when recording a new one. */
+    private final static int LATENCY_HISTORY_WEIGHT = 3;
+    /**
+     * Once this delay has elapsed, a node on which wsadmin wasn't found is
+     * given a new chance (its configuration may have been fixed).
+     */
+    private final static long UNAVAILABLE_EXPIRATION = TimeUnit2.HOURS.toMillis(1);
+
+    private static ServerAffinity instance;
+
+    /** Statistics per server name, then per node name. */
+    private final Map<String,Map<String,NodeStats>> stats = new HashMap<String,Map<String,NodeStats>>();
+    /** {@code true} if the statistics have changed since they were saved. */
+    private transient boolean dirty;
+
+    public static synchronized ServerAffinity get() {
+        if(instance == null) {
+            instance = new ServerAffinity();
+            XmlFile file = getConfigFile();
+            if(file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                }
+                catch(IOException ioe) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, ioe);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the average connect latency, in milliseconds, from the given
+     * node to the given server, or {@code -1} if it has never been measured.
+     */
+    public synchronized long getLatency(String serverName, String nodeName) {
+        NodeStats nodeStats = getStats(serverName, nodeName, false);
+        return nodeStats != null ? nodeStats.latency : -1;
+    }
+
+    /**
+     * Returns {@code true} if wsadmin couldn't be found, recently, on the given
+     * node for the given server.
+     */
+    public boolean isUnavailable(String serverName, String nodeName) {
+        return isUnavailable(serverName, nodeName, System.currentTimeMillis());
+    }
+
+    synchronized boolean isUnavailable(String serverName, String nodeName, long now) {
+        NodeStats nodeStats = getStats(serverName, nodeName, false);
+        return nodeStats != null && nodeStats.unavailableSince > 0
+                && now - nodeStats.unavailableSince < UNAVAILABLE_EXPIRATION;
+    }
+
+    /**
+     * Measures the time it takes to connect to the given server from the node
+     * {@code launcher} runs on, and records it; Failures are only logged: They
+     * are not supposed to affect the build.
+     */
+    public void measure(WASServer server, Node node, Launcher launcher, TaskListener listener) throws InterruptedException {
+        try {
+            long latency = launcher.getChannel().call(new Connect(server.getHost(), server.getPort()));
+            if(latency >= 0) {
+                recordLatency(server.getName(), node.getNodeName(), latency);
+            }
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.FINE, "Failed to measure the latency to " + server.getName(), ioe);
+        }
+    }
+
+    public void recordLatency(String serverName, String nodeName, long latency) {
+        synchronized(this) {
+            NodeStats nodeStats = getStats(serverName, nodeName, true);
+            if(nodeStats.latency < 0) {
+                nodeStats.latency = latency;
+            }
+            else {
+                nodeStats.latency = (nodeStats.latency * LATENCY_HISTORY_WEIGHT + latency) / (LATENCY_HISTORY_WEIGHT + 1);
+            }
+            nodeStats.unavailableSince = 0;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Records that wsadmin couldn't be found on the given node for the given
+     * server.
+     */
+    public void recordUnavailable(String serverName, String nodeName) {
+        synchronized(this) {
+            getStats(serverName, nodeName, true).unavailableSince = System.currentTimeMillis();
+            dirty = true;
+        }
+    }
+
+    private NodeStats getStats(String serverName, String nodeName, boolean create) {
+        Map<String,NodeStats> serverStats = stats.get(serverName);
+        if(serverStats == null) {
+            if(!create) {
+                return null;
+            }
+            serverStats = new HashMap<String,NodeStats>();
+            stats.put(serverName, serverStats);
+        }
+        NodeStats nodeStats = serverStats.get(nodeName);
+        if(nodeStats == null && create) {
+            nodeStats = new NodeStats();
+            serverStats.put(nodeName, nodeStats);
+        }
+        return nodeStats;
+    }
+
+    /**
+     * Saves the statistics if they have changed since they were last saved.
+     */
+    synchronized void saveIfDirty() {
+        if(!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            getConfigFile().write(this);
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.WARNING, "Failed to save " + getConfigFile(), ioe);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Hudson.XSTREAM, new File(Hudson.getInstance().getRootDir(), "was-builder-affinity.xml"));
+    }
+
+    /**
+     * Persists the statistics recorded by the build steps.
+     */
+    @Extension
+    public static class Saver extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            ServerAffinity.get().saveIfDirty();
+        }
+
+    }
+
+    private static class NodeStats {
+        /** Average connect latency, in milliseconds ({@code -1} if unknown). */
+        long latency = -1;
+        /** When wsadmin was last found missing ({@code 0} if it was found). */
+        long unavailableSince;
+    }
+
+    /**
+     * Opens, then closes, a connection to the given host and port; Returns
+     * the time it took, in milliseconds, or {@code -1} if the connection failed.
+     */
+    private static class Connect implements Callable<Long,IOException> {
+
+        private final String host;
+        private final int port;
+
+        Connect(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public Long call() throws IOException {
+            Socket socket = new Socket();
+            try {
+                long start = System.currentTimeMillis();
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+                return System.currentTimeMillis() - start;
+            }
+            catch(IOException ioe) {
+                return -1L;
+            }
+            finally {
+                socket.close();
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    private final static Logger LOGGER = Logger.getLogger(ServerAffinity.class.getName());
+
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.Queue.Task;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.tasks.Builder;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolLocationNodeProperty;
+import hudson.util.TimeUnit2;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Prevents a project using {@link WASBuildStep}s from being built on a node
+ * which is not suitable for the WAS servers it targets, that is to say:
+ * <ul>
+ * <li>a node which doesn't match the label of a server;</li>
+ * <li>a node on which wsadmin can't be found (the WAS installation can't be
+ * resolved on it, or it was found missing by a recent build);</li>
+ * <li>a node which is much slower to connect to a server than another idle
+ * node (cf. {@link ServerAffinity}).</li>
+ * </ul>
+ *
+ * <p>A node on which wsadmin was found missing by a recent build is only
+ * rejected if another online node is suitable for the server, so that a
+ * project isn't blocked everywhere when wsadmin was missing on every node.</p>
+ *
+ * <p>A node is only rejected on latency grounds in favor of a node which could
+ * take the build right now: It must be online, have an idle executor, match
+ * the label of the project and of the server, and accept the project. Nodes
+ * for which no latency has been recorded yet are never rejected on latency
+ * grounds, so that they get a chance to be measured. Finally, a build is
+ * never held back for more than {@link #MAX_DEFERRAL} seconds on latency or
+ * availability grounds: Past this delay, it goes to whichever node matching
+ * the server is free.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+@Extension
+public class ServerAffinityDispatcher extends QueueTaskDispatcher {
+
+    /**
+     * A node is rejected if another one connects at least this number of
+     * times faster to the server.
+     */
+    private final static int FASTER_FACTOR = 2;
+
+    /**
+     * Maximum time, in seconds, a build can wait in the queue for a faster (or
+     * more available) node; Can be tuned through the {@code
+     * com.michelin.cio.hudson.plugins.wasbuilder.ServerAffinityDispatcher.maxDeferral}
+     * system property.
+     */
+    public final static int MAX_DEFERRAL = Integer.getInteger(ServerAffinityDispatcher.class.getName() + ".maxDeferral", 120);
+
+    @Override
+    public CauseOfBlockage canTake(Node node, Task task) {
+        if(!(task instanceof Project)) {
+            return null;
+        }
+
+        Project<?, ?> project = (Project<?, ?>) task;
+        for(Builder builder: project.getBuilders()) {
+            if(builder instanceof WASBuildStep) {
+                WASServer server = ((WASBuildStep) builder).getWasServer();
+                if(server != null) {
+                    CauseOfBlockage cause = canTake(node, project, server);
+                    if(cause != null) {
+                        return cause;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private CauseOfBlockage canTake(Node node, Project<?, ?> project, WASServer server) {
+        if(!isConfiguredFor(node, server)) {
+            return new BecauseOf("NodeNotSuitableForServer", node.getDisplayName(), server.getName());
+        }
+
+        // has the build already waited long enough for a better node?
+        Queue.Item item = Hudson.getInstance().getQueue().getItem(project);
+        if(item != null && System.currentTimeMillis() - item.getInQueueSince() > TimeUnit2.SECONDS.toMillis(MAX_DEFERRAL)) {
+            return null;
+        }
+
+        ServerAffinity affinity = ServerAffinity.get();
+        if(affinity.isUnavailable(server.getName(), node.getNodeName())) {
+            // is there another node the build could go to?
+            for(Node other: getAllNodes()) {
+                if(other == node || !isCandidate(other, project)) {
+                    continue;
+                }
+                if(isSuitable(other, server)) {
+                    return new BecauseOf("NodeNotSuitableForServer", node.getDisplayName(), server.getName());
+                }
+            }
+            return null;
+        }
+
+        long latency = affinity.getLatency(server.getName(), node.getNodeName());
+        if(latency < 0) {
+            return null;
+        }
+
+        // is there an idle node, able to build the project right now, which is
+        // faster?
+        for(Node other: getAllNodes()) {
+            if(other == node || !isCandidate(other, project) || other.toComputer().countIdle() == 0) {
+                continue;
+            }
+
+            long otherLatency = affinity.getLatency(server.getName(), other.getNodeName());
+            if(otherLatency >= 0 && otherLatency * FASTER_FACTOR < latency && isSuitable(other, server)) {
+                return new BecauseOf("FasterNodeAvailable", other.getDisplayName(), server.getName());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the given node is online and may build the
+     * project.
+     */
+    private static boolean isCandidate(Node node, Project<?, ?> project) {
+        Label assignedLabel = project.getAssignedLabel();
+        if(assignedLabel != null && !assignedLabel.contains(node)) {
+            return false;
+        }
+        Computer computer = node.toComputer();
+        if(computer == null || computer.isOffline() || !computer.isAcceptingTasks()) {
+            return false;
+        }
+        // e.g. the node is reserved for tied jobs
+        return node.canTake(project) == null;
+    }
+
+    /**
+     * Returns {@code true} if the node matches the label of the server and if
+     * wsadmin is expected to be found on it.
+     */
+    static boolean isSuitable(Node node, WASServer server) {
+        return isConfiguredFor(node, server) && !ServerAffinity.get().isUnavailable(server.getName(), node.getNodeName());
+    }
+
+    /**
+     * Returns {@code true} if the node matches the label of the server and if
+     * the WAS installation of the server can be resolved on it.
+     */
+    private static boolean isConfiguredFor(Node node, WASServer server) {
+        if(StringUtils.isNotBlank(server.getLabel())) {
+            Label label = Hudson.getInstance().getLabel(server.getLabel());
+            if(label != null && !label.contains(node)) {
+                return false;
+            }
+        }
+
+        WASInstallation installation = server.getWasInstallation();
+        if(installation == null) {
+            // the build will fail anyway, whatever the node
+            return true;
+        }
+        if(StringUtils.isBlank(installation.getHome()) && installation.getProperties().get(InstallSourceProperty.class) == null) {
+            ToolLocationNodeProperty location = node.getNodeProperties().get(ToolLocationNodeProperty.class);
+            if(location == null || StringUtils.isBlank(location.getHome(installation))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static List<Node> getAllNodes() {
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(Hudson.getInstance());
+        nodes.addAll(Hudson.getInstance().getNodes());
+        return nodes;
+    }
+
+    private static class BecauseOf extends CauseOfBlockage {
+
+        private final String description;
+
+        BecauseOf(String key, Object... args) {
+            this.description = ResourceBundleHolder.get(WASBuildStep.class).format(key, args);
+        }
+
+        @Override
+        public String getShortDescription() {
+            return description;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import hudson.model.Hudson;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * CLI command adding or updating WAS servers, read as JSON from the standard
+ * input (cf. {@link WASServersAction} for the format and for the way existing
+ * servers are updated).
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+@Extension
+public class SetWASServersCommand extends CLICommand {
+
+    @Override
+    public String getShortDescription() {
+        return "Adds or updates WAS servers, read as JSON from stdin";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+        StringBuilder json = new StringBuilder();
+        Reader reader = new InputStreamReader(stdin, "UTF-8");
+        char[] buffer = new char[4096];
+        int read;
+        while((read = reader.read(buffer)) >= 0) {
+            json.append(buffer, 0, read);
+        }
+
+        List<WASServer> servers;
+        try {
+            servers = WASServersAction.parse(json.toString(), WASServersAction.getDescriptor().getServers());
+        }
+        catch(IllegalArgumentException iae) {
+            stderr.println(iae.getMessage());
+            return -1;
+        }
+
+        WASServersAction.getDescriptor().putServers(servers.toArray(new WASServer[0]));
+        stdout.println(servers.size() + " WAS server(s) updated");
+        return 0;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractBuild;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.zip.GZIPOutputStream;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Keeps the console output of very verbose wsadmin runs readable and bounded,
+ * while archiving the full output, compressed, with the build (in the {@code
+ * wsadmin} folder of its artifacts):
+ * <ul>
+ * <li>Consecutive lines which only differ by their numbers (progress lines,
+ * typically) are collapsed: Only the first and the last ones are shown;</li>
+ * <li>No more than {@link #RATE} lines per second are shown;</li>
+ * <li>Once the limit of lines is reached, the next lines are dropped but the
+ * last ones (a quarter of the limit), which are shown once wsadmin has
+ * completed.</li>
+ * </ul>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ShapedLogOutputStream extends LineTransformationOutputStream {
+
+    /** Maximum number of lines shown per second. */
+    private final static int RATE = Integer.getInteger(ShapedLogOutputStream.class.getName() + ".rate", 100);
+
+    private final OutputStream archive;
+    private final String archiveName;
+    private final PrintStream console;
+    /** Maximum number of lines shown while wsadmin runs. */
+    private final int liveLimit;
+    /** Last lines dropped once {@link #liveLimit} has been reached. */
+    private final LinkedList<byte[]> tail = new LinkedList<byte[]>();
+    private final int tailSize;
+
+    private boolean closed;
+    /** Number of lines dropped, once {@link #liveLimit} has been reached, which are not in {@link #tail}. */
+    private long omitted;
+    private int printed;
+    /** Last line of the current group of similar lines, if not shown yet. */
+    private byte[] pendingLine;
+    private int repeats;
+    private String shape;
+    /** Number of lines dropped because of {@link #RATE}, not reported yet. */
+    private long skipped;
+    private int windowCount;
+    private long windowStart;
+
+    /**
+     * @param limit the maximum number of lines to show
+     */
+    ShapedLogOutputStream(PrintStream console, OutputStream archive, String archiveName, int limit) {
+        this.archive = archive;
+        this.archiveName = archiveName;
+        this.console = console;
+        this.tailSize = limit / 4;
+        this.liveLimit = limit - tailSize;
+    }
+
+    /**
+     * Creates a stream which archives the full output in a new file of the
+     * {@code wsadmin} folder of the build artifacts.
+     */
+    public static ShapedLogOutputStream create(AbstractBuild<?, ?> build, PrintStream console, int limit) throws IOException {
+        File archiveFolder = new File(build.getArtifactsDir(), TraceFileManager.ARCHIVE_FOLDER);
+        archiveFolder.mkdirs();
+        File archive = new File(archiveFolder, "console.log.gz");
+        for(int i = 2; archive.exists(); i++) {
+            archive = new File(archiveFolder, "console-" + i + ".log.gz");
+        }
+        return new ShapedLogOutputStream(
+                console,
+                new GZIPOutputStream(new FileOutputStream(archive)),
+                TraceFileManager.ARCHIVE_FOLDER + "/" + archive.getName(),
+                limit);
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        archive.write(b, 0, len);
+
+        String lineShape = trimEOL(new String(b, 0, len)).replaceAll("[0-9]+", "#");
+        if(lineShape.equals(shape)) {
+            repeats++;
+            pendingLine = copy(b, len);
+            return;
+        }
+
+        flushRepeats();
+        shape = lineShape;
+        show(copy(b, len));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            super.close();
+            flushRepeats();
+            flushSkipped();
+            if(omitted > 0) {
+                console.println(ResourceBundleHolder.get(WASBuildStep.class).format("ConsoleLinesOmitted", omitted, archiveName));
+            }
+            for(byte[] line: tail) {
+                console.write(line);
+            }
+            console.flush();
+        }
+        finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Shows the last line of the current group of similar lines.
+     */
+    private void flushRepeats() throws IOException {
+        if(repeats > 1) {
+            show(ResourceBundleHolder.get(WASBuildStep.class).format("ConsoleLinesCollapsed", repeats - 1).concat("\n").getBytes());
+        }
+        if(pendingLine != null) {
+            show(pendingLine);
+        }
+        pendingLine = null;
+        repeats = 0;
+    }
+
+    private void flushSkipped() {
+        if(skipped > 0) {
+            console.println(ResourceBundleHolder.get(WASBuildStep.class).format("ConsoleLinesSkipped", skipped, RATE, archiveName));
+            skipped = 0;
+        }
+    }
+
+    private void show(byte[] line) throws IOException {
+        if(printed >= liveLimit) {
+            tail.add(line);
+            if(tail.size() > tailSize) {
+                tail.removeFirst();
+                omitted++;
+            }
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if(now - windowStart >= 1000) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        if(windowCount >= RATE) {
+            skipped++;
+            return;
+        }
+
+        flushSkipped();
+        console.write(line);
+        windowCount++;
+        printed++;
+    }
+
+    private static byte[] copy(byte[] b, int len) {
+        byte[] line = new byte[len];
+        System.arraycopy(b, 0, line, 0, len);
+        return line;
+    }
+
+}
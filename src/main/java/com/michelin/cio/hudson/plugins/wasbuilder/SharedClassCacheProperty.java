@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import hudson.util.FormValidation;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.localizer.ResourceBundleHolder;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Makes the wsadmin JVMs of a {@link WASInstallation} share their classes
+ * through the shared class cache of the IBM JVM ({@code -Xshareclasses}).
+ *
+ * <p>Most of the time wsadmin needs before connecting to a server is spent
+ * loading and verifying classes: With a shared class cache, only the first
+ * wsadmin run of a node pays for it, the next ones (even concurrent ones)
+ * reuse the classes which are already loaded in the cache. There's one cache
+ * per installation, bounded by {@link #getCacheSize()}.</p>
+ *
+ * <p>Only the IBM J9 JVM (the one WAS 6.1 and later ship with on AIX, Linux
+ * and Windows) supports these options: Other JVMs refuse to start with them.
+ * So, before they're used on a node, the JVM of the installation is checked
+ * (once per node, cf. {@link CheckJvm}); They aren't used either if the
+ * scripts of wsadmin already set up a shared class cache (as WAS 7.0 does).</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class SharedClassCacheProperty extends ToolProperty<WASInstallation> {
+
+    /** Results of {@link CheckJvm}, per node and installation home. */
+    private final static ConcurrentMap<String,String[]> JVM_CHECKS = new ConcurrentHashMap<String,String[]>();
+
+    /** Folder of the cache on the nodes ({@code null} for the JVM default). */
+    private final String cacheDir;
+    /** Maximum size of the cache, in MB ({@code 0} for the JVM default). */
+    private final int cacheSize;
+
+    @DataBoundConstructor
+    public SharedClassCacheProperty(String cacheDir, int cacheSize) {
+        this.cacheDir = StringUtils.trimToNull(cacheDir);
+        this.cacheSize = Math.max(cacheSize, 0);
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Returns the JVM options, to be passed to wsadmin through {@code
+     * -javaoption}, which enable the cache for the given installation, as set
+     * up for {@code node}; The list is empty if the wsadmin JVM of the node
+     * can't use the cache, or already does (which is reported to the
+     * listener).
+     */
+    public List<String> getJavaOptions(WASInstallation wasInstallation, Node node, Launcher launcher, TaskListener listener) throws InterruptedException {
+        String key = node.getNodeName() + '\n' + wasInstallation.getHome();
+        String[] problem = JVM_CHECKS.get(key);
+        if(problem == null) {
+            try {
+                problem = launcher.getChannel().call(new CheckJvm(wasInstallation));
+            }
+            catch(IOException ioe) {
+                // not cached: the check is done again next time
+                listener.getLogger().println(ResourceBundleHolder.get(SharedClassCacheProperty.class).format("JvmCheckFailed", ioe));
+                return Collections.emptyList();
+            }
+            JVM_CHECKS.put(key, problem);
+        }
+
+        if(problem.length > 0) {
+            listener.getLogger().println(ResourceBundleHolder.get(SharedClassCacheProperty.class).format(problem[0], problem[1]));
+            return Collections.emptyList();
+        }
+        return getJavaOptions(wasInstallation);
+    }
+
+    /**
+     * Returns the JVM options which enable the cache for the given
+     * installation, whatever its JVM.
+     */
+    List<String> getJavaOptions(WASInstallation wasInstallation) {
+        List<String> javaOptions = new ArrayList<String>();
+
+        // nonfatal: the JVM still starts if the cache can't be used
+        StringBuilder shareClasses = new StringBuilder("-Xshareclasses:name=wasbuilder_");
+        shareClasses.append(wasInstallation.getName().replaceAll("[^A-Za-z0-9_]", "_"));
+        if(cacheDir != null) {
+            shareClasses.append(",cacheDir=").append(cacheDir);
+        }
+        shareClasses.append(",nonfatal");
+        javaOptions.add(shareClasses.toString());
+
+        if(cacheSize > 0) {
+            // only taken into account when the cache is created
+            javaOptions.add("-Xscmx" + cacheSize + "m");
+        }
+
+        return javaOptions;
+    }
+
+    /**
+     * Returns {@code null} if {@code output}, the output of {@code java
+     * -version}, is the one of a JVM which supports the shared class cache (an
+     * IBM J9 JVM, Java 5 or later), its first line otherwise.
+     */
+    static String checkVersion(String output) {
+        String firstLine = output.trim();
+        int eol = firstLine.indexOf('\n');
+        if(eol >= 0) {
+            firstLine = firstLine.substring(0, eol).trim();
+        }
+
+        if(output.indexOf("J9") < 0 || firstLine.matches(".*\"1\\.[0-4][^0-9].*")) {
+            return firstLine;
+        }
+        return null;
+    }
+
+    @Override
+    public Class<WASInstallation> type() {
+        return WASInstallation.class;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ToolPropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return ResourceBundleHolder.get(SharedClassCacheProperty.class).format("DisplayName");
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == WASInstallation.class;
+        }
+
+        public FormValidation doCheckCacheSize(@QueryParameter String value) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    if(Integer.parseInt(value.trim()) < 0) {
+                        return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format("SizeMustBeInteger"));
+                    }
+                }
+                catch(NumberFormatException nfe) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format("SizeMustBeInteger"));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
+    }
+
+    /**
+     * Checks, on a node, whether the wsadmin JVM of an installation can be
+     * given the options of the cache; Returns an empty array if so, the key of
+     * the message explaining why not and its argument otherwise.
+     */
+    private static class CheckJvm implements Callable<String[],IOException> {
+
+        private final WASInstallation wasInstallation;
+
+        CheckJvm(WASInstallation wasInstallation) {
+            this.wasInstallation = wasInstallation;
+        }
+
+        public String[] call() throws IOException {
+            // WAS 7.0 sets up its own cache in setupCmdLine
+            File wsadminFile = wasInstallation.findWsadminFile();
+            if(wsadminFile != null) {
+                String extension = wsadminFile.getName().substring(wsadminFile.getName().lastIndexOf('.'));
+                File[] scripts = { wsadminFile, new File(wsadminFile.getParentFile(), "setupCmdLine" + extension) };
+                for(File script: scripts) {
+                    if(script.isFile() && read(new FileInputStream(script)).indexOf("-Xshareclasses") >= 0) {
+                        return new String[] { "SharedClassCacheAlreadyEnabled", script.getPath() };
+                    }
+                }
+            }
+
+            File java = wasInstallation.getJavaExecutable();
+            if(!java.isFile()) {
+                return new String[] { "JvmNotFound", java.getPath() };
+            }
+            ProcessBuilder builder = new ProcessBuilder(java.getPath(), "-version");
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            String output;
+            try {
+                process.getOutputStream().close();
+                output = read(process.getInputStream());
+            }
+            finally {
+                process.destroy();
+            }
+
+            String unsupported = checkVersion(output);
+            if(unsupported != null) {
+                return new String[] { "JvmNotSupported", unsupported };
+            }
+            return new String[0];
+        }
+
+        private static String read(InputStream in) throws IOException {
+            try {
+                StringBuilder content = new StringBuilder();
+                Reader reader = new InputStreamReader(in);
+                char[] buffer = new char[4096];
+                int read;
+                while((read = reader.read(buffer)) >= 0) {
+                    content.append(buffer, 0, read);
+                }
+                return content.toString();
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.model.Action;
+
+/**
+ * Reports, on the build page, that a {@link WASBuildStep} has been skipped
+ * because a queued build was going to supersede it (cf. {@link
+ * DeploymentCoalescer}).
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class SupersededAction implements Action {
+
+    private final String key;
+    /** Name of the queued task which supersedes the build step. */
+    private final String supersededBy;
+    private final String wasServerName;
+
+    public SupersededAction(String wasServerName, String key, String supersededBy) {
+        this.key = key;
+        this.supersededBy = supersededBy;
+        this.wasServerName = wasServerName;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getSupersededBy() {
+        return supersededBy;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    public String getWasServerName() {
+        return wasServerName;
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.FilePath.TarCompression;
+import hudson.Util;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.FormValidation;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.localizer.ResourceBundleHolder;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Installs the WAS Administration Thin Client on a node from an archive
+ * ({@code .zip}, {@code .tar.gz}/{@code .tgz} or {@code .tar}) hosted on the
+ * master.
+ *
+ * <p>The archive is streamed to the node and unpacked in the tools folder of
+ * the node; The digest of the archive is recorded along with the installation
+ * so that it is only unpacked again if the archive has changed.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ThinClientInstaller extends ToolInstaller {
+
+    /** Name of the file recording the digest of the installed archive. */
+    private final static String DIGEST_FILE = ".installedFrom";
+
+    /** Digests of the archives, per path, along with their timestamp. */
+    private final static Map<String,String[]> DIGESTS = new HashMap<String,String[]>();
+    /** Locks, per node and installation folder. */
+    private final static Map<String,Object> LOCKS = new HashMap<String,Object>();
+
+    /** Path of the archive on the master, absolute or relative to HUDSON_HOME. */
+    private final String archive;
+    /** Folder of the archive containing the thin client, if not its root. */
+    private final String subdir;
+
+    @DataBoundConstructor
+    public ThinClientInstaller(String label, String archive, String subdir) {
+        super(label);
+        this.archive = StringUtils.trim(archive);
+        this.subdir = StringUtils.trimToNull(subdir);
+    }
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public String getSubdir() {
+        return subdir;
+    }
+
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+        FilePath dir = preferredLocation(tool, node);
+        File archiveFile = getArchiveFile(archive);
+        if(!archiveFile.isFile()) {
+            throw new IOException(ResourceBundleHolder.get(ThinClientInstaller.class).format("ArchiveNotFound", archiveFile));
+        }
+
+        String digest = getDigest(archiveFile);
+
+        // two builds may try to install the thin client on the same node at
+        // the same time
+        synchronized(getLock(node, dir)) {
+            FilePath digestFile = dir.child(DIGEST_FILE);
+            if(digestFile.exists() && digest.equals(digestFile.readToString().trim())) {
+                return getHome(dir);
+            }
+
+            log.getLogger().println(ResourceBundleHolder.get(ThinClientInstaller.class).format("Installing", archiveFile, node.getDisplayName(), dir));
+
+            dir.mkdirs();
+            dir.deleteContents();
+
+            InputStream in = new FileInputStream(archiveFile);
+            try {
+                String archiveName = archiveFile.getName().toLowerCase();
+                if(archiveName.endsWith(".zip")) {
+                    dir.unzipFrom(in);
+                }
+                else if(archiveName.endsWith(".tar.gz") || archiveName.endsWith(".tgz")) {
+                    dir.untarFrom(in, TarCompression.GZIP);
+                }
+                else {
+                    dir.untarFrom(in, TarCompression.NONE);
+                }
+            }
+            finally {
+                in.close();
+            }
+
+            // zip archives don't preserve the file permissions
+            FilePath wsadminSh = getHome(dir).child(WASInstallation.WSADMIN_SH);
+            if(wsadminSh.exists()) {
+                wsadminSh.chmod(0755);
+            }
+
+            digestFile.write(digest, "UTF-8");
+        }
+
+        return getHome(dir);
+    }
+
+    private FilePath getHome(FilePath dir) {
+        return subdir != null ? dir.child(subdir) : dir;
+    }
+
+    private static File getArchiveFile(String archive) {
+        File archiveFile = new File(archive);
+        if(!archiveFile.isAbsolute()) {
+            archiveFile = new File(Hudson.getInstance().getRootDir(), archive);
+        }
+        return archiveFile;
+    }
+
+    /**
+     * Returns the digest of the given archive, which is only computed again if
+     * the archive has been modified.
+     */
+    private static String getDigest(File archiveFile) throws IOException {
+        String timestamp = archiveFile.lastModified() + ":" + archiveFile.length();
+        synchronized(DIGESTS) {
+            String[] digest = DIGESTS.get(archiveFile.getPath());
+            if(digest != null && digest[0].equals(timestamp)) {
+                return digest[1];
+            }
+        }
+
+        InputStream in = new FileInputStream(archiveFile);
+        try {
+            String digest = Util.getDigestOf(in);
+            synchronized(DIGESTS) {
+                DIGESTS.put(archiveFile.getPath(), new String[] { timestamp, digest });
+            }
+            return digest;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static Object getLock(Node node, FilePath dir) {
+        String key = node.getNodeName() + ':' + dir.getRemote();
+        synchronized(LOCKS) {
+            Object lock = LOCKS.get(key);
+            if(lock == null) {
+                lock = new Object();
+                LOCKS.put(key, lock);
+            }
+            return lock;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ToolInstallerDescriptor<ThinClientInstaller> {
+
+        @Override
+        public String getDisplayName() {
+            return ResourceBundleHolder.get(ThinClientInstaller.class).format("DisplayName");
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == WASInstallation.class;
+        }
+
+        public FormValidation doCheckArchive(@QueryParameter String value) {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+            if(StringUtils.isBlank(value)) {
+                return FormValidation.error(ResourceBundleHolder.get(ThinClientInstaller.class).format("ArchiveMustBeSet"));
+            }
+
+            File archiveFile = getArchiveFile(value.trim());
+            if(!archiveFile.isFile()) {
+                return FormValidation.error(ResourceBundleHolder.get(ThinClientInstaller.class).format("ArchiveNotFound", archiveFile));
+            }
+
+            String archiveName = archiveFile.getName().toLowerCase();
+            if(!archiveName.endsWith(".zip") && !archiveName.endsWith(".tar.gz") && !archiveName.endsWith(".tgz") && !archiveName.endsWith(".tar")) {
+                return FormValidation.warning(ResourceBundleHolder.get(ThinClientInstaller.class).format("UnknownArchiveType"));
+            }
+
+            return FormValidation.ok();
+        }
+
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Caches the {@link CellTopology} of each {@link WASServer}, so that names of
+ * nodes, servers, clusters and applications can be autocompleted and checked
+ * without starting wsadmin.
+ *
+ * <p>Topologies are only discovered in the background, from the closest node
+ * where builds have found wsadmin, and refreshed once they're older than
+ * {@link #TTL} minutes: Build steps never start wsadmin to check names, they
+ * only warn about the names which aren't in the cached topology. The topology
+ * of a server is dropped when the server is updated or removed, and when a
+ * {@link WASConfigStep} creates configuration objects: A discovery which was
+ * running at that time doesn't get cached. The changes made by the scripts of
+ * the {@link WASBuildStep}s are picked up by the next refresh.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class TopologyCache {
+
+    /** Time to live, in minutes, of a topology. */
+    public static int TTL = Integer.getInteger(TopologyCache.class.getName() + ".ttl", 60);
+
+    /** Maximum duration, in minutes, of the discovery if the server has none. */
+    private final static int DEFAULT_TIMEOUT = 10;
+
+    /**
+     * Options of the script parameters which are checked, with the kind of
+     * element they refer to.
+     */
+    private final static Map<String,String> OPTIONS = new HashMap<String,String>();
+    static {
+        OPTIONS.put("-app", "application");
+        OPTIONS.put("-appname", "application");
+        OPTIONS.put("-application", "application");
+        OPTIONS.put("-applicationname", "application");
+        OPTIONS.put("-cluster", "cluster");
+        OPTIONS.put("-clustername", "cluster");
+        OPTIONS.put("-node", "node");
+        OPTIONS.put("-nodename", "node");
+        OPTIONS.put("-server", "server");
+        OPTIONS.put("-servername", "server");
+    }
+
+    private final static Map<String,CellTopology> TOPOLOGIES = new ConcurrentHashMap<String,CellTopology>();
+    /** When the discovery of the topology of each server was last attempted. */
+    private final static Map<String,Long> ATTEMPTS = new ConcurrentHashMap<String,Long>();
+    /**
+     * Generation of the topology of each server, incremented by each
+     * invalidation; Also used to lock the updates of {@link #TOPOLOGIES}.
+     */
+    private final static Map<String,Long> GENERATIONS = new HashMap<String,Long>();
+
+    private TopologyCache() {
+    }
+
+    /**
+     * Returns the cached topology of the given server, or {@code null} if it
+     * isn't known.
+     */
+    public static CellTopology get(String serverName) {
+        return serverName != null ? TOPOLOGIES.get(serverName) : null;
+    }
+
+    /**
+     * Drops the cached topology of the given server.
+     */
+    public static void invalidate(String serverName) {
+        synchronized(GENERATIONS) {
+            GENERATIONS.put(serverName, getGeneration(serverName) + 1);
+            TOPOLOGIES.remove(serverName);
+            ATTEMPTS.remove(serverName);
+        }
+    }
+
+    /**
+     * Checks the names of nodes, servers, clusters and applications given to
+     * the {@code -node}, {@code -server}, {@code -cluster}, {@code -app} (and
+     * similar) options of the script parameters against the topology; Returns
+     * a description of the first unknown name, or {@code null} if all the
+     * names are known (or if the topology isn't known).
+     */
+    public static String check(CellTopology topology, String scriptParameters) {
+        if(topology == null || scriptParameters == null) {
+            return null;
+        }
+
+        String[] tokens = Util.tokenize(scriptParameters);
+        for(int i = 0; i < tokens.length - 1; i++) {
+            String kind = OPTIONS.get(tokens[i].toLowerCase());
+            String name = tokens[i + 1];
+            if(kind == null || name.indexOf('$') >= 0) {
+                // unknown option, or unexpanded variable
+                continue;
+            }
+
+            boolean known;
+            if("application".equals(kind)) {
+                known = topology.getApplications().contains(name);
+            }
+            else if("cluster".equals(kind)) {
+                known = topology.getClusters().contains(name);
+            }
+            else if("node".equals(kind)) {
+                known = topology.getNodes().contains(name);
+            }
+            else {
+                known = topology.hasServer(name);
+            }
+            if(!known) {
+                return ResourceBundleHolder.get(WASBuildStep.class).format("UnknownTopologyElement", kind, name, tokens[i]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Discovers the topology of the given server by running wsadmin on the
+     * given node, and caches it; Returns the discovered topology, or {@code
+     * null} if the discovery failed (which has been reported to the
+     * listener).
+     *
+     * <p>If the topology of the server gets invalidated while the discovery is
+     * running, the discovered topology is returned but not cached: It may
+     * predate the changes which caused the invalidation.</p>
+     *
+     * @param tmp the folder, on the node, where the discovery script is
+     * written
+     */
+    static CellTopology refresh(WASServer server, Wsadmin wsadmin, FilePath tmp, Node node, Launcher launcher, EnvVars env, TaskListener listener) throws IOException, InterruptedException {
+        long generation = getGeneration(server.getName());
+        ATTEMPTS.put(server.getName(), System.currentTimeMillis());
+
+        MarkerCollector collector = new MarkerCollector(listener.getLogger());
+        boolean success;
+        try {
+            success = new GeneratedScript("topology.py").run(tmp, node, launcher, listener, env, wsadmin, collector);
+        }
+        finally {
+            collector.close();
+        }
+
+        if(!success) {
+            listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("TopologyDiscoveryFailed", server.getName()));
+            return null;
+        }
+
+        CellTopology topology = new CellTopology(collector);
+        synchronized(GENERATIONS) {
+            if(getGeneration(server.getName()) == generation) {
+                TOPOLOGIES.put(server.getName(), topology);
+            }
+        }
+        return topology;
+    }
+
+    private static long getGeneration(String serverName) {
+        synchronized(GENERATIONS) {
+            Long generation = GENERATIONS.get(serverName);
+            return generation != null ? generation : 0;
+        }
+    }
+
+    /**
+     * Returns the online node from which the topology of the given server is
+     * to be discovered in the background, or {@code null} if there's none.
+     *
+     * <p>Only the nodes on which builds have already found wsadmin and
+     * connected to the server are considered (cf. {@link ServerAffinity}), the
+     * closest one being preferred: The master, in particular, may have no WAS
+     * installation at all.</p>
+     */
+    private static Node getDiscoveryNode(WASServer server) {
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(Hudson.getInstance());
+        nodes.addAll(Hudson.getInstance().getNodes());
+
+        ServerAffinity affinity = ServerAffinity.get();
+        Node closest = null;
+        long closestLatency = Long.MAX_VALUE;
+        for(Node node: nodes) {
+            Computer computer = node.toComputer();
+            if(computer == null || computer.isOffline()) {
+                continue;
+            }
+            long latency = affinity.getLatency(server.getName(), node.getNodeName());
+            if(latency >= 0 && latency < closestLatency && ServerAffinityDispatcher.isSuitable(node, server)) {
+                closest = node;
+                closestLatency = latency;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Refreshes the topologies which are missing or too old, from a node where
+     * wsadmin is known to be available; The topologies of the servers for which
+     * there's no such node yet are discovered once a build has found wsadmin
+     * somewhere.
+     */
+    @Extension
+    public static class Refresher extends AsyncPeriodicWork {
+
+        public Refresher() {
+            super("WAS cell topology refresh");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 5 * MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            long expiration = System.currentTimeMillis() - TTL * MIN;
+            for(WASServer server: WASServersAction.getDescriptor().getServers()) {
+                Long attempt = ATTEMPTS.get(server.getName());
+                if(attempt != null && attempt > expiration) {
+                    continue;
+                }
+
+                Node node = getDiscoveryNode(server);
+                if(node == null) {
+                    continue;
+                }
+
+                try {
+                    int timeout = server.getTimeout() > 0 ? server.getTimeout() : DEFAULT_TIMEOUT;
+                    FilePath tmp = node.getRootPath().child("was-builder");
+                    tmp.mkdirs();
+                    refresh(server, new Wsadmin(server, server.getUser(), server.getPassword(), timeout), tmp, node, node.createLauncher(listener), node.toComputer().getEnvironment(), listener);
+                }
+                catch(IOException ioe) {
+                    ioe.printStackTrace(listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("TopologyDiscoveryFailed", server.getName())));
+                }
+            }
+        }
+
+    }
+
+}
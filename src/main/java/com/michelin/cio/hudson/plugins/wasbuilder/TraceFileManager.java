@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Keeps the wsadmin trace files (cf. the {@code -tracefile} option) bounded.
+ *
+ * <p>Once wsadmin has completed:</p>
+ * <ul>
+ * <li>The last bytes of the trace file are compressed and archived with the
+ * build (in the {@code wsadmin} folder of its artifacts, under a name which
+ * identifies the build step);</li>
+ * <li>If the trace file has grown beyond the rotation size, it is compressed
+ * to {@code <trace file>.1.gz} (older generations being shifted and the ones
+ * beyond the rotation count being deleted) and removed, so that the next run,
+ * even with {@code -appendtrace}, starts with an empty file.</li>
+ * </ul>
+ *
+ * <p>The trace file isn't rotated while wsadmin runs: wsadmin keeps it open
+ * without appending to it, so it can neither be renamed nor truncated under
+ * its feet.</p>
+ *
+ * <p>All the processing takes place on the node where the trace file lives,
+ * the trace file being compressed as it is read: Only the compressed tail is
+ * sent back to the master.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class TraceFileManager {
+
+    public final static String ARCHIVE_FOLDER = "wsadmin";
+
+    private final static int BUFFER_SIZE = 8192;
+
+    /** Size, in bytes, of the trace file tail archived with the build. */
+    private final long archiveSize;
+    /** Number of compressed generations to keep. */
+    private final int rotateCount;
+    /** Size, in bytes, beyond which the trace file is rotated. */
+    private final long rotateSize;
+
+    /**
+     * @param rotateSize the rotation size, in MB ({@code 0} to disable rotation)
+     * @param rotateCount the number of compressed generations to keep
+     * @param archiveSize the size, in KB, of the tail to archive ({@code 0} to
+     * disable archiving)
+     */
+    public TraceFileManager(int rotateSize, int rotateCount, int archiveSize) {
+        this.archiveSize = archiveSize * 1024L;
+        this.rotateCount = Math.max(rotateCount, 1);
+        this.rotateSize = rotateSize * 1024L * 1024L;
+    }
+
+    public boolean isEnabled() {
+        return archiveSize > 0 || rotateSize > 0;
+    }
+
+    /**
+     * Archives the tail of the trace file with the build and rotates it if
+     * required; Failures are reported but don't affect the build result.
+     *
+     * @param qualifier identifies the build step in the name of the archive, so
+     * that the archives of several steps of a build don't overwrite each other
+     */
+    public void process(FilePath traceFile, String qualifier, AbstractBuild<?, ?> build, TaskListener listener) throws InterruptedException {
+        try {
+            if(!traceFile.exists()) {
+                return;
+            }
+
+            if(archiveSize > 0) {
+                File archiveFolder = new File(build.getArtifactsDir(), ARCHIVE_FOLDER);
+                archiveFolder.mkdirs();
+                String archiveName = traceFile.getName() + "-" + qualifier;
+                File archive = new File(archiveFolder, archiveName + ".gz");
+                for(int i = 2; archive.exists(); i++) {
+                    archive = new File(archiveFolder, archiveName + "-" + i + ".gz");
+                }
+
+                OutputStream out = new FileOutputStream(archive);
+                try {
+                    traceFile.act(new CompressTail(archiveSize, new RemoteOutputStream(out)));
+                }
+                finally {
+                    out.close();
+                }
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("TraceFileArchived", ARCHIVE_FOLDER + "/" + archive.getName()));
+            }
+
+            if(rotateSize > 0 && traceFile.act(new Rotate(rotateSize, rotateCount))) {
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("TraceFileRotated", traceFile.getRemote()));
+            }
+        }
+        catch(IOException ioe) {
+            listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("TraceFileProcessingFailed", traceFile.getRemote(), ioe));
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code in} to {@code out}.
+     */
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while(length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if(read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Streams the last bytes of a file, compressed, to the given output.
+     */
+    static class CompressTail implements FileCallable<Void> {
+
+        private final long length;
+        private final OutputStream out;
+
+        CompressTail(long length, OutputStream out) {
+            this.length = length;
+            this.out = out;
+        }
+
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            InputStream in = new FileInputStream(f);
+            try {
+                long skip = Math.max(f.length() - length, 0);
+                while(skip > 0) {
+                    long skipped = in.skip(skip);
+                    if(skipped <= 0) {
+                        break;
+                    }
+                    skip -= skipped;
+                }
+
+                GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+                copy(in, gzip, length);
+                gzip.finish();
+                gzip.flush();
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    /**
+     * Compresses a file to a new generation, and deletes it, if it exceeds
+     * the rotation size; Returns {@code true} if the file has been rotated.
+     */
+    static class Rotate implements FileCallable<Boolean> {
+
+        private final int count;
+        private final long size;
+
+        Rotate(long size, int count) {
+            this.count = count;
+            this.size = size;
+        }
+
+        public Boolean invoke(File f, VirtualChannel channel) throws IOException {
+            if(f.length() < size) {
+                return false;
+            }
+
+            // we shift the existing generations, dropping the oldest one
+            File oldest = generation(f, count);
+            if(oldest.exists() && !oldest.delete()) {
+                throw new IOException("Can't delete " + oldest);
+            }
+            for(int i = count - 1; i >= 1; i--) {
+                File older = generation(f, i);
+                if(older.exists() && !older.renameTo(generation(f, i + 1))) {
+                    throw new IOException("Can't rename " + older);
+                }
+            }
+
+            InputStream in = new FileInputStream(f);
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(new FileOutputStream(generation(f, 1)), BUFFER_SIZE);
+                try {
+                    copy(in, gzip, Long.MAX_VALUE);
+                }
+                finally {
+                    gzip.close();
+                }
+            }
+            finally {
+                in.close();
+            }
+
+            if(!f.delete()) {
+                throw new IOException("Can't delete " + f);
+            }
+            return true;
+        }
+
+        static File generation(File f, int i) {
+            return new File(f.getParentFile(), f.getName() + "." + i + ".gz");
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
@@ -32,13 +32,16 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
-import hudson.model.BooleanParameterValue;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Hudson;
-import hudson.model.ParameterValue;
+import hudson.model.Node;
 import hudson.model.ParametersAction;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.Result;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
@@ -46,7 +49,13 @@ import hudson.util.FormValidation;
 import hudson.util.Secret;
 import hudson.util.VariableResolver;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.jvnet.localizer.ResourceBundleHolder;
@@ -67,13 +76,59 @@ public class WASBuildStep extends Builder {
     public final static String LANG_JACL = "Jacl";
     public final static String LANG_JYTHON = "Jython";
     public final static String[] LANG = { LANG_JYTHON, LANG_JACL };
+    public final static String HARVEST_ALWAYS = "always";
+    public final static String HARVEST_NEVER = "never";
+    public final static String HARVEST_ON_FAILURE = "onFailure";
+    public final static String[] HARVEST = { HARVEST_NEVER, HARVEST_ON_FAILURE, HARVEST_ALWAYS };
+
+    private final static String BATCH_MARKER = "BATCH";
+    /** Prefix of the results which report deployments (cf. {@link DeploymentLedger}). */
+    private final static String DEPLOYMENT_RESULT_PREFIX = "deployment.";
+    private final static String SAVE_CONFLICT_MARKER = "SAVECONFLICT";
+    private final static String RUNTIME_CHANGED_MARKER = "RUNTIMECHANGED";
+    private final static Random RANDOM = new Random();
 
     /** Corresponds to the -wsadmin_classpath option of wsadmin. */
     private final String additionalClasspath;
     /** Corresponds to the -appendtrace option of wsadmin. */
     private final boolean appendTrace;
+    /**
+     * Parameter sets, one per line: If not empty, the script file is run once
+     * per parameter set, in a single wsadmin JVM (batch mode; Jython only).
+     */
+    private final String batchParameters;
+    /**
+     * If {@code true}, the syntax of the commands/script file is checked before
+     * running wsadmin.
+     */
+    private final boolean checkSyntax;
+    /**
+     * If not empty, the build step is skipped when a queued build is going to
+     * run a build step against the same server with the same key (cf. {@link
+     * DeploymentCoalescer}).
+     */
+    private final String coalesceKey;
     /** Corresponds to the -c option of wsadmin. */
     private final String commands;
+    /**
+     * Number of times the script is run again when {@code AdminConfig.save()}
+     * fails because of a conflict with another session ({@code 0} to disable
+     * the conflict detection); Only supported with Jython.
+     */
+    private final int conflictRetries;
+    /**
+     * Maximum number of lines of the wsadmin output shown in the console
+     * ({@code 0} for no limit); The full output is archived with the build.
+     */
+    private final int consoleLimit;
+    /**
+     * When the logs of the application servers of the cell are to be collected
+     * once done (cf. {@link LogHarvester}): One of {@link #HARVEST_NEVER},
+     * {@link #HARVEST_ON_FAILURE} or {@link #HARVEST_ALWAYS}.
+     */
+    private final String harvestLogs;
+    /** Maximum size, in MB, of the logs collected for a build. */
+    private final int harvestLogsLimit;
     /** Corresponds to the -javaoption option of wsadmin. */
     private final String javaOptions;
     /** Corresponds to the -jobid option of wsadmin (not available for WAS 6.0). */
@@ -87,31 +142,70 @@ public class WASBuildStep extends Builder {
     /** Corresponds to the -p option of wsadmin. */
     private final String propertiesFiles;
     /**
-     * If {@code dontPerformBuildStep} contains a variable name and if this variable is set,
-     * then the build step is run. If the variable is not set, or if this
-     * attribute is {@code null}, or if it is an empty string, then the build
-     * step is not run.
+     * Applications to wait for (to be ready) once wsadmin has successfully
+     * completed.
+     */
+    private final String readyApplications;
+    /** Maximum time to wait for the applications, in seconds. */
+    private final int readyTimeout;
+    /** HTTP URL to wait for once the applications are ready. */
+    private final String readyUrl;
+    /**
+     * If not empty, the build step is run only if this condition, over
+     * parameters and variables, is true (cf. {@link RunIfExpression}).
      */
     private final String runIf;
+    /** {@link #runIf}, compiled once. */
+    private transient RunIfExpression runIfExpression;
     /** Corresponds to the -f option of wsadmin. */
     private final String scriptFile;
+    /**
+     * Maximum duration, in minutes, of the wsadmin run; If {@code 0}, the
+     * timeout defined at the server level (if any) is used.
+     */
+    private final int timeout;
     /**
      * Corresponds to the script paramaters that are specified at the end of the
      * wsadmin command.
      */
     private final String scriptParameters;
+    /**
+     * If {@code true}, the nodes of the cell are synchronized once wsadmin has
+     * successfully completed.
+     */
+    private final boolean syncNodes;
+    /** Maximum number of nodes to be synchronized at the same time. */
+    private final int syncConcurrency;
     /** Corresponds to the -tracefile option of wsadmin (not available for WAS 6.0). */
     private final String traceFile;
+    /** Size, in KB, of the trace file tail to be archived with the build. */
+    private final int traceArchiveSize;
+    /** Number of compressed generations of the trace file to keep. */
+    private final int traceRotateCount;
+    /** Size, in MB, beyond which the trace file is rotated. */
+    private final int traceRotateSize;
     /** Allows overriding the user defined at the server level */
     private final String user;
     /** Identitifies the {@link WASServer} to be used. */
     private final String wasServerName;
 
     @DataBoundConstructor
-    public WASBuildStep(String additionalClasspath, boolean appendTrace, String commands, String javaOptions, String jobId, String language, String profileScriptFiles, String propertiesFiles, String runIf, String scriptFile, String scriptParameters, String traceFile, String wasServerName, String user, String password) {
+    public WASBuildStep(String additionalClasspath, boolean appendTrace, String batchParameters, boolean checkSyntax, String coalesceKey, String commands, int conflictRetries, int consoleLimit, String harvestLogs, int harvestLogsLimit, String javaOptions, String jobId, String language, String profileScriptFiles, String propertiesFiles, String readyApplications, int readyTimeout, String readyUrl, String runIf, String scriptFile, String scriptParameters, boolean syncNodes, int syncConcurrency, String traceFile, int traceArchiveSize, int traceRotateCount, int traceRotateSize, String wasServerName, String user, String password, int timeout) {
         this.additionalClasspath = additionalClasspath.trim();
         this.appendTrace = appendTrace;
+        this.batchParameters = batchParameters.trim();
+        this.checkSyntax = checkSyntax;
+        this.coalesceKey = coalesceKey.trim();
         this.commands = commands.trim();
+        this.conflictRetries = Math.max(conflictRetries, 0);
+        this.consoleLimit = Math.max(consoleLimit, 0);
+        if(!HARVEST_ALWAYS.equals(harvestLogs) && !HARVEST_ON_FAILURE.equals(harvestLogs)) {
+            this.harvestLogs = HARVEST_NEVER;
+        }
+        else {
+            this.harvestLogs = harvestLogs;
+        }
+        this.harvestLogsLimit = Math.max(harvestLogsLimit, 0);
         this.javaOptions = javaOptions.trim();
         this.jobId = jobId.trim();
         if(!language.equals(LANG_JACL) && !language.equals(LANG_JYTHON)) {
@@ -124,13 +218,22 @@ public class WASBuildStep extends Builder {
         }
         this.profileScriptFiles = profileScriptFiles.trim();
         this.propertiesFiles = propertiesFiles.trim();
+        this.readyApplications = readyApplications.trim();
+        this.readyTimeout = Math.max(readyTimeout, 0);
+        this.readyUrl = readyUrl.trim();
         this.runIf = runIf.trim();
         this.scriptFile = scriptFile.trim();
         this.scriptParameters = scriptParameters.trim();
+        this.syncNodes = syncNodes;
+        this.syncConcurrency = Math.max(syncConcurrency, 0);
         this.traceFile = traceFile.trim();
+        this.traceArchiveSize = Math.max(traceArchiveSize, 0);
+        this.traceRotateCount = Math.max(traceRotateCount, 0);
+        this.traceRotateSize = Math.max(traceRotateSize, 0);
         this.wasServerName = wasServerName;
         this.user = user.trim();
         this.password = Secret.fromString(password);
+        this.timeout = Math.max(timeout, 0);
     }
 
     public String getAdditionalClasspath() {
@@ -141,15 +244,44 @@ public class WASBuildStep extends Builder {
         return appendTrace;
     }
 
+    public String getBatchParameters() {
+        return batchParameters;
+    }
+
+    public boolean isCheckSyntax() {
+        return checkSyntax;
+    }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
     public String getCommands() {
         return commands;
     }
 
+    public int getConflictRetries() {
+        return conflictRetries;
+    }
+
+    public int getConsoleLimit() {
+        return consoleLimit;
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) super.getDescriptor();
     }
 
+    public String getHarvestLogs() {
+        // harvestLogs is null for build steps configured with older versions
+        return harvestLogs != null ? harvestLogs : HARVEST_NEVER;
+    }
+
+    public int getHarvestLogsLimit() {
+        return harvestLogsLimit;
+    }
+
     public String getJavaOptions() {
         return javaOptions;
     }
@@ -175,10 +307,34 @@ public class WASBuildStep extends Builder {
         return propertiesFiles;
     }
 
+    public String getReadyApplications() {
+        return readyApplications;
+    }
+
+    public int getReadyTimeout() {
+        return readyTimeout;
+    }
+
+    public String getReadyUrl() {
+        return readyUrl;
+    }
+
     public String getRunIf() {
         return runIf;
     }
 
+    /**
+     * Returns the compiled {@code runIf} condition ({@code null} if there's
+     * none); If it isn't valid, it is compiled as a single name (cf. {@link
+     * RunIfExpression#compileLeniently(String)}).
+     */
+    public RunIfExpression getRunIfExpression() {
+        if(runIfExpression == null && StringUtils.isNotEmpty(getRunIf())) {
+            runIfExpression = RunIfExpression.compileLeniently(getRunIf());
+        }
+        return runIfExpression;
+    }
+
     public String getScriptFile() {
         return scriptFile;
     }
@@ -187,10 +343,34 @@ public class WASBuildStep extends Builder {
         return scriptParameters;
     }
 
+    public int getSyncConcurrency() {
+        return syncConcurrency;
+    }
+
+    public boolean isSyncNodes() {
+        return syncNodes;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
     public String getTraceFile() {
         return traceFile;
     }
 
+    public int getTraceArchiveSize() {
+        return traceArchiveSize;
+    }
+
+    public int getTraceRotateCount() {
+        return traceRotateCount;
+    }
+
+    public int getTraceRotateSize() {
+        return traceRotateSize;
+    }
+
     public String getUser() {
         return user;
     }
@@ -200,12 +380,11 @@ public class WASBuildStep extends Builder {
      * null} if none has been set).
      */
     public WASServer getWasServer() {
-        for(WASServer server: getDescriptor().getWasServers()) {
-            if(getWasServerName() != null && server.getName().equals(getWasServerName())) {
-                return server;
-            }
+        WASServer server = Hudson.getInstance().getDescriptorByType(WASInstallation.DescriptorImpl.class).getServer(getWasServerName());
+        if(server != null && server.getName().equals(getWasServerName())) {
+            return server;
         }
-        
+
         return null;
     }
 
@@ -215,8 +394,6 @@ public class WASBuildStep extends Builder {
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
-        AbstractProject project = build.getProject();
-        ArgumentListBuilder args = new ArgumentListBuilder();
         EnvVars env = build.getEnvironment(listener);
         VariableResolver<String> varResolver = build.getBuildVariableResolver();
 
@@ -226,80 +403,76 @@ public class WASBuildStep extends Builder {
             return true;
         }
 
-        // --- wsadmin.bat/wsadmin.sh ---
-
+        long start = System.currentTimeMillis();
         WASServer wasServer = getWasServer();
-        if(wasServer != null) {
-            WASInstallation wasInstallation = wasServer.getWasInstallation();
-            if(wasInstallation != null) {
-                wasInstallation = wasInstallation.forNode(Computer.currentComputer().getNode(), listener);
-                wasInstallation = wasInstallation.forEnvironment(env);
-
-                String wsadminExecutable = wasInstallation.getWsadminExecutable(launcher);
-                if(wsadminExecutable != null) {
-                    for(String wsadminExecutablePart: wsadminExecutable.split(" ")) {
-                        args.add(wsadminExecutablePart);
-                    }
-                }
-                else {
-                    listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoWsadminExecutable", wasInstallation.getName(), wasServer.getName()));
-                    return false;
-                }
-            }
-            else {
-                listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoInstallationSet", wasServer.getName()));
-                return false;
-            }
-        }
-        else {
+        if(wasServer == null) {
             listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoServerSet"));
             return false;
         }
 
-        // --- server parameters (defined in the corresponding WASServer) ---
-
-        args.add("-conntype", wasServer.getConntype());
-        args.add("-host", wasServer.getHost());
-        args.add("-port", Integer.toString(wasServer.getPort()));
-
-        // --- user/password (defined in the corresponding WASServer but can be overriden) ---
-
-        String user = null;
-        String password = null;
-        if(!StringUtils.isEmpty(getUser())) {
-            user = Util.replaceMacro(env.expand(getUser()), varResolver);
-            password = Util.replaceMacro(env.expand(getPassword()), varResolver);
-            listener.getLogger().println("Using user " + user + " defined at the build step level");
-        }
-        else if(!StringUtils.isEmpty(wasServer.getUser())) {
-            user = wasServer.getUser();
-            password = wasServer.getPassword();
-            listener.getLogger().println("Using user " + user + " defined at the server level");
-        }
-        if(!StringUtils.isEmpty(user)) {
-            args.add("-user", wasServer.getUser());
-            if(!StringUtils.isEmpty(password)) {
-                args.add("-password");
-                args.addMasked(wasServer.getPassword());
+        // --- coalescing ---
+
+        if(getCoalesceKey() != null && getCoalesceKey().length() > 0) {
+            String key = Util.replaceMacro(env.expand(getCoalesceKey()), varResolver);
+            Queue.Item supersedingItem = DeploymentCoalescer.findSupersedingItem(wasServer.getName(), key);
+            if(supersedingItem != null) {
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("Superseded", supersedingItem.task.getFullDisplayName(), wasServer.getName(), key));
+                build.addAction(new SupersededAction(wasServer.getName(), key, supersedingItem.task.getFullDisplayName()));
+                build.setResult(Result.NOT_BUILT);
+                // the next build steps mustn't run either: they would work on
+                // a deployment which didn't take place (the build remains
+                // marked as not built, which is worse than failed)
+                return false;
             }
         }
 
-        // --- lang ---
-
-        args.add("-lang", getLanguage().toLowerCase());
+        Node node = Computer.currentComputer().getNode();
+        Wsadmin wsadmin = createWsadmin(wasServer, listener, env, varResolver);
+        ArgumentListBuilder args = wsadmin.createArgs(node, launcher, listener, env, getLanguage());
+        if(args == null) {
+            return false;
+        }
+        ServerAffinity.get().measure(wasServer, node, launcher, listener);
 
         // --- commands or script file ---
 
+        FilePath batchScriptFile = null;
+
         if(getCommands() != null && getCommands().length() > 0) {
             for(String command: Util.tokenize(Util.replaceMacro(env.expand(getCommands()), varResolver), "\n\r\f")) {
+                if(isCheckSyntax()) {
+                    String syntaxError = ScriptChecker.check(getLanguage(), command);
+                    if(syntaxError != null) {
+                        listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("CommandSyntaxError", command, syntaxError));
+                        return false;
+                    }
+                }
                 args.add("-c", command);
             }
         }
         else if(getScriptFile() != null && getScriptFile().length() > 0) {
+            if(getBatchParameters() != null && getBatchParameters().length() > 0 && !LANG_JYTHON.equals(getLanguage())) {
+                listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("BatchJythonOnly"));
+                return false;
+            }
+
             FilePath scriptFilePath = build.getWorkspace().child(Util.replaceMacro(env.expand(getScriptFile()), varResolver));
             if(scriptFilePath.exists()) {
-                args.add("-f");
-                args.add(scriptFilePath);
+                if(isCheckSyntax()) {
+                    String syntaxError = scriptFilePath.act(new ScriptChecker.CheckFile(getLanguage()));
+                    if(syntaxError != null) {
+                        listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("ScriptFileSyntaxError", scriptFilePath.toURI(), syntaxError));
+                        return false;
+                    }
+                }
+                if(getBatchParameters() != null && getBatchParameters().length() > 0) {
+                    // the script is run by the batch driver (cf. below)
+                    batchScriptFile = scriptFilePath;
+                }
+                else {
+                    args.add("-f");
+                    args.add(scriptFilePath);
+                }
             }
             else {
                 listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("ScriptFileNotFound", scriptFilePath.toURI()));
@@ -326,6 +499,20 @@ public class WASBuildStep extends Builder {
             }
         }
 
+        // --- save conflicts (cf. scripts/conflictAwareSave.py) ---
+
+        FilePath conflictProfile = null;
+        if(getConflictRetries() > 0) {
+            if(LANG_JYTHON.equals(getLanguage())) {
+                conflictProfile = new GeneratedScript("conflictAwareSave.py").write(build.getWorkspace());
+                args.add("-profile");
+                args.add(conflictProfile);
+            }
+            else {
+                listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("ConflictRetriesJythonOnly"));
+            }
+        }
+
         // --- profile script files ---
 
         if(getProfileScriptFiles() != null && getProfileScriptFiles().length() > 0) {
@@ -341,6 +528,13 @@ public class WASBuildStep extends Builder {
             }
         }
 
+        // --- results (cf. ResultsChannel) ---
+
+        FilePath resultsFile = ResultsChannel.create(build.getWorkspace());
+        args.add("-javaoption", "-D" + ResultsChannel.PROPERTY + "=" + resultsFile.getRemote());
+        EnvVars wsadminEnv = new EnvVars(env);
+        wsadminEnv.put(ResultsChannel.ENV_VAR, resultsFile.getRemote());
+
         // --- Java options ---
 
         if(getJavaOptions() != null && getJavaOptions().length() > 0) {
@@ -363,8 +557,11 @@ public class WASBuildStep extends Builder {
 
         // --- trace file ---
 
+        FilePath traceFilePath = null;
+        TraceFileManager traceFileManager = null;
         if(getTraceFile() != null && getTraceFile().length() > 0) {
-            FilePath traceFilePath = build.getWorkspace().child(Util.replaceMacro(env.expand(getTraceFile()), varResolver));
+            traceFilePath = build.getWorkspace().child(Util.replaceMacro(env.expand(getTraceFile()), varResolver));
+            traceFileManager = new TraceFileManager(getTraceRotateSize(), getTraceRotateCount(), getTraceArchiveSize());
             args.add("-tracefile");
             args.add(traceFilePath);
         }
@@ -377,18 +574,297 @@ public class WASBuildStep extends Builder {
         
         // --- parameters ---
 
+        String scriptParameters = "";
         if(getScriptParameters() != null && getScriptFile().length() > 0) {
-            args.addTokenized(Util.replaceMacro(env.expand(getScriptParameters()), varResolver).replaceAll("[\t\r\n]+"," "));
+            scriptParameters = Util.replaceMacro(env.expand(getScriptParameters()), varResolver).replaceAll("[\t\r\n]+"," ");
+
+            if(batchScriptFile == null) {
+                args.addTokenized(scriptParameters);
+            }
+        }
+
+        // --- batch mode (cf. scripts/batch.py) ---
+
+        FilePath batchDriver = null;
+        List<String> parameterSets = new ArrayList<String>();
+        if(batchScriptFile != null) {
+            // the script parameters are common to all the parameter sets
+            List<List<String>> parameterSetsArgs = new ArrayList<List<String>>();
+            for(String parameterSet: Util.tokenize(Util.replaceMacro(env.expand(getBatchParameters()), varResolver), "\r\n")) {
+                parameterSet = (scriptParameters + ' ' + parameterSet).trim();
+                parameterSets.add(parameterSet);
+                parameterSetsArgs.add(Arrays.asList(Util.tokenize(parameterSet)));
+            }
+
+            batchDriver = new GeneratedScript("batch.py")
+                    .set("SCRIPT", batchScriptFile.getRemote())
+                    .set("PARAMETER_SETS", parameterSetsArgs)
+                    .write(build.getWorkspace());
+            args.add("-f");
+            args.add(batchDriver);
         }
 
+        // we don't wait for wsadmin to find out the parameters refer to
+        // unknown nodes, servers, clusters or applications
+        if(batchScriptFile != null) {
+            checkTopology(parameterSets, wasServer, listener);
+        }
+        else if(scriptParameters.length() > 0) {
+            checkTopology(Arrays.asList(scriptParameters), wasServer, listener);
+        }
+
+        // verbose runs are shaped (cf. ShapedLogOutputStream)
+        OutputStream console = listener.getLogger();
+        ShapedLogOutputStream shapedConsole = null;
+        if(getConsoleLimit() > 0) {
+            shapedConsole = ShapedLogOutputStream.create(build, listener.getLogger(), getConsoleLimit());
+            console = shapedConsole;
+        }
+
+        boolean success;
+        MarkerCollector collector = null;
+        Map<String,String> results;
         try {
-            return launcher.launch().cmds(args).envs(env).stdout(listener).join() == 0;
+            // on a save conflict, the changes of the session have been rolled
+            // back: if they don't overlap the ones of the other session, they
+            // can be applied by running the whole script again (the config
+            // IDs it gets from the first session can't be replayed in a new
+            // one, so its configuration part can't be retried alone)
+            for(int attempt = 0; ; attempt++) {
+                if(attempt > 0) {
+                    // only the results of the last run are kept
+                    resultsFile.write("", "UTF-8");
+                }
+
+                collector = new MarkerCollector(console);
+                try {
+                    success = wsadmin.run(args, launcher, listener, wsadminEnv, collector);
+                }
+                finally {
+                    collector.close();
+                }
+
+                if(success || conflictProfile == null || collector.getMarkers(SAVE_CONFLICT_MARKER).isEmpty() || attempt >= getConflictRetries()) {
+                    break;
+                }
+                // running the script again would repeat its runtime operations
+                List<String> runtimeOperations = collector.getMarkers(RUNTIME_CHANGED_MARKER);
+                if(!runtimeOperations.isEmpty()) {
+                    listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("SaveConflictNotRetried", runtimeOperations.get(0)));
+                    break;
+                }
+
+                long delay = (1 + RANDOM.nextInt(5)) * 1000L * (attempt + 1);
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("SaveConflictRetrying", delay / 1000, attempt + 1, getConflictRetries()));
+                Thread.sleep(delay);
+            }
+
+            if(shapedConsole != null) {
+                // shows the last lines of the output
+                shapedConsole.close();
+            }
+
+            if(batchDriver != null) {
+                success &= recordBatchRuns(build, listener, batchScriptFile, parameterSets, collector.getMarkers(BATCH_MARKER));
+            }
+
+            results = ResultsChannel.read(resultsFile);
+            if(!results.isEmpty()) {
+                WASResultsAction.addTo(build, results);
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("ResultsRecorded", results.size()));
+            }
         }
         catch(IOException ioe) {
             Util.displayIOException(ioe, listener);
             listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("ExecutionFailed"));
             return false;
         }
+        finally {
+            if(shapedConsole != null) {
+                shapedConsole.close();
+            }
+
+            if(conflictProfile != null) {
+                conflictProfile.delete();
+            }
+            if(batchDriver != null) {
+                batchDriver.delete();
+            }
+            resultsFile.delete();
+        }
+
+        // --- trace file archiving and rotation ---
+
+        if(traceFilePath != null && traceFileManager.isEnabled()) {
+            traceFileManager.process(traceFilePath, getStepQualifier(build, env, varResolver), build, listener);
+        }
+
+        // --- node synchronization ---
+
+        if(success && isSyncNodes()) {
+            success = new NodeSynchronizer(getSyncConcurrency()).synchronize(build, launcher, listener, env, wsadmin);
+        }
+
+        // --- applications readiness ---
+
+        if(success && getReadyApplications() != null && getReadyApplications().length() > 0) {
+            String readyUrl = null;
+            if(getReadyUrl() != null && getReadyUrl().length() > 0) {
+                readyUrl = Util.replaceMacro(env.expand(getReadyUrl()), varResolver);
+            }
+            ReadinessGate readinessGate = new ReadinessGate(
+                    Util.tokenize(Util.replaceMacro(env.expand(getReadyApplications()), varResolver)),
+                    readyUrl,
+                    getReadyTimeout());
+            success = readinessGate.await(build, launcher, listener, env, wsadmin);
+        }
+
+        // --- deployment ledger ---
+
+        recordDeployments(build, wasServer, results, System.currentTimeMillis() - start, success);
+
+        // --- logs harvesting ---
+
+        if(HARVEST_ALWAYS.equals(getHarvestLogs()) || (!success && HARVEST_ON_FAILURE.equals(getHarvestLogs()))) {
+            new LogHarvester(getHarvestLogsLimit()).harvest(build, launcher, listener, env, wsadmin);
+        }
+
+        return success;
+    }
+
+    /**
+     * Reports the runs of the script in batch mode on the build; Returns
+     * {@code true} if the script has succeeded for all the parameter sets.
+     */
+    private boolean recordBatchRuns(AbstractBuild<?, ?> build, BuildListener listener, FilePath script, List<String> parameterSets, List<String> markers) {
+        boolean success = true;
+        List<BatchAction.BatchRun> runs = new ArrayList<BatchAction.BatchRun>();
+        for(String marker: markers) {
+            // <index> <ok|failed> <duration>
+            String[] fields = marker.split(" ");
+            if(fields.length != 3) {
+                continue;
+            }
+            int index;
+            long duration;
+            try {
+                index = Integer.parseInt(fields[0]);
+                duration = Long.parseLong(fields[2]);
+            }
+            catch(NumberFormatException nfe) {
+                continue;
+            }
+            if(index < 1 || index > parameterSets.size()) {
+                continue;
+            }
+
+            BatchAction.BatchRun run = new BatchAction.BatchRun(parameterSets.get(index - 1), "ok".equals(fields[1]), duration);
+            if(!run.isSuccess()) {
+                listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("BatchRunFailed", run.getParameters()));
+                success = false;
+            }
+            runs.add(run);
+        }
+
+        if(runs.size() < parameterSets.size()) {
+            // wsadmin has stopped before running the script for all the sets
+            success = false;
+        }
+
+        build.addAction(new BatchAction(script.getName(), runs));
+        return success;
+    }
+
+    /**
+     * Records, in the {@link DeploymentLedger}, the deployments reported by the
+     * script into the {@link ResultsChannel}: {@code
+     * deployment.<application>.version} and {@code
+     * deployment.<application>.digest} results.
+     */
+    private void recordDeployments(AbstractBuild<?, ?> build, WASServer wasServer, Map<String,String> results, long duration, boolean success) {
+        Map<String,String[]> deployments = new TreeMap<String,String[]>();
+        for(Map.Entry<String,String> result: results.entrySet()) {
+            String key = result.getKey();
+            if(!key.startsWith(DEPLOYMENT_RESULT_PREFIX)) {
+                continue;
+            }
+            int field;
+            String suffix;
+            if(key.endsWith(".version")) {
+                field = 0;
+                suffix = ".version";
+            }
+            else if(key.endsWith(".digest")) {
+                field = 1;
+                suffix = ".digest";
+            }
+            else {
+                continue;
+            }
+            if(key.length() <= DEPLOYMENT_RESULT_PREFIX.length() + suffix.length()) {
+                continue;
+            }
+            String application = key.substring(DEPLOYMENT_RESULT_PREFIX.length(), key.length() - suffix.length());
+            if(!deployments.containsKey(application)) {
+                deployments.put(application, new String[2]);
+            }
+            deployments.get(application)[field] = result.getValue();
+        }
+
+        long timestamp = System.currentTimeMillis();
+        for(Map.Entry<String,String[]> deployment: deployments.entrySet()) {
+            DeploymentLedger.get().record(new DeploymentLedger.Deployment(
+                    wasServer.getName(),
+                    deployment.getKey(),
+                    deployment.getValue()[0],
+                    deployment.getValue()[1],
+                    build.getParent().getFullName(),
+                    build.getNumber(),
+                    timestamp,
+                    duration,
+                    success));
+        }
+    }
+
+    /**
+     * Checks the names of nodes, servers, clusters and applications given in
+     * the parameters against the cached topology of the server, without
+     * starting wsadmin; Unknown names are only reported as warnings: The
+     * script may create them, or the cached topology may be outdated.
+     */
+    private void checkTopology(List<String> parameters, WASServer wasServer, BuildListener listener) {
+        CellTopology topology = TopologyCache.get(wasServer.getName());
+        for(String parameterSet: parameters) {
+            String topologyError = TopologyCache.check(topology, parameterSet);
+            if(topologyError != null) {
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("UnknownTopologyElementWarning", topologyError));
+            }
+        }
+    }
+
+    /**
+     * Returns a name identifying this build step within the build: Its job ID
+     * if any, its position among the builders of the project otherwise.
+     */
+    private String getStepQualifier(AbstractBuild<?, ?> build, EnvVars env, VariableResolver<String> varResolver) {
+        if(getJobId() != null && getJobId().length() > 0) {
+            return Util.replaceMacro(env.expand(getJobId()), varResolver).replaceAll("[^\\w.-]", "_");
+        }
+
+        int index = -1;
+        if(build.getProject() instanceof Project) {
+            index = ((Project<?, ?>) build.getProject()).getBuilders().indexOf(this);
+        }
+        return index >= 0 ? "step" + (index + 1) : "step";
+    }
+
+    /**
+     * Returns the {@link Wsadmin} to be used to run commands against the given
+     * server, with the user/password defined at the build step level if any,
+     * at the server level otherwise.
+     */
+    private Wsadmin createWsadmin(WASServer wasServer, BuildListener listener, EnvVars env, VariableResolver<String> varResolver) {
+        return Wsadmin.create(wasServer, getUser(), getPassword(), getTimeout(), listener, env, varResolver);
     }
 
     /**
@@ -396,60 +872,22 @@ public class WASBuildStep extends Builder {
      * the {@code runIf} attribute, {@code false} otherwise.
      */
     private boolean dontPerformBuildStep(BuildListener listener, AbstractBuild<?, ?> build, VariableResolver<String> varResolver, EnvVars env) {
-        // --- dontPerformBuildStep ---
-        if (StringUtils.isNotEmpty(getRunIf())) {
-            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("SearchingForBooleanParamOrBuildVarOrEnvVar", getRunIf()));
-            // let's search for a BooleanParameterDefinition (actually, a
-            // BooleanParameterValue) which matches the dontPerformBuildStep field
-            BooleanParameterValue booleanParamValue = null;
-            List<ParametersAction> actions = build.getActions(ParametersAction.class);
-            if (actions != null) {
-                for (ParametersAction action : actions) {
-                    List<ParameterValue> parameters = action.getParameters();
-                    if (parameters != null) {
-                        for (ParameterValue parameter : parameters) {
-                            if (parameter.getName().equals(getRunIf()) && parameter instanceof BooleanParameterValue) {
-                                booleanParamValue = (BooleanParameterValue) parameter;
-                                break;
-                            }
-                        }
-                    }
-                    if (booleanParamValue != null) {
-                        break;
-                    }
-                }
-            }
-            if (booleanParamValue != null) {
-                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BooleanParamFound", getRunIf()));
-                if (booleanParamValue.value) {
-                    listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepRunBecauseOfBooleanParam", getRunIf()));
-                } else {
-                    listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepNotRunBecauseOfBooleanParam", getRunIf()));
-                    return true;
-                }
-            } else {
-                // 1st check: is the var defined at the build level?
-                String runIfVar = varResolver.resolve(getRunIf());
-                if (runIfVar != null) {
-                    // does the build var has a value?
-                    if (runIfVar.trim().length() > 0) {
-                        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepRunBecauseOfBuildVar", getRunIf()));
-                    } else {
-                        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepNotRunBecauseOfBuildVar", getRunIf()));
-                        return true;
-                    }
-                } else {
-                    listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildVarNotFound", getRunIf()));
-                    if (env.containsKey(getRunIf())) {
-                        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepRunBecauseOfEnvVar", getRunIf()));
-                    } else {
-                        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepNotRunBecauseOfEnvVar", getRunIf()));
-                        return true;
-                    }
-                }
-            }
+        RunIfExpression expression = getRunIfExpression();
+        if(expression == null) {
+            return false;
+        }
+        if(expression.getError() != null) {
+            // invalid conditions are rejected when the project is configured,
+            // but some may predate conditions
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("InvalidRunIfEvaluatedAsName", expression, expression.getError()));
         }
-        return false;
+
+        if(expression.evaluate(build.getActions(ParametersAction.class), varResolver, env)) {
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepRunBecauseOfRunIf", expression));
+            return false;
+        }
+        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("BuildStepNotRunBecauseOfRunIf", expression));
+        return true;
     }
 
     @Extension
@@ -480,6 +918,23 @@ public class WASBuildStep extends Builder {
             return WASBuildStep.LANG;
         }
 
+        /**
+         * Returns the possible values for {@link WASBuildStep#getHarvestLogs()}.
+         */
+        public String[] getHarvestModes() {
+            return WASBuildStep.HARVEST;
+        }
+
+        public String getHarvestModeDisplayName(String harvestMode) {
+            if(HARVEST_ALWAYS.equals(harvestMode)) {
+                return ResourceBundleHolder.get(WASBuildStep.class).format("HarvestLogsAlways");
+            }
+            if(HARVEST_ON_FAILURE.equals(harvestMode)) {
+                return ResourceBundleHolder.get(WASBuildStep.class).format("HarvestLogsOnFailure");
+            }
+            return ResourceBundleHolder.get(WASBuildStep.class).format("HarvestLogsNever");
+        }
+
         public WASServer[] getWasServers() {
             return Hudson.getInstance().getDescriptorByType(WASInstallation.DescriptorImpl.class).getServers();
         }
@@ -512,7 +967,19 @@ public class WASBuildStep extends Builder {
             ////formData.remove("commandsOrScript");
 
             // now we can safely use bindJSON()
-            return req.bindJSON(WASBuildStep.class, formData);
+            WASBuildStep step = req.bindJSON(WASBuildStep.class, formData);
+
+            // an invalid condition would be evaluated as a single name
+            if(StringUtils.isNotEmpty(step.getRunIf())) {
+                try {
+                    RunIfExpression.compile(step.getRunIf());
+                }
+                catch(IllegalArgumentException iae) {
+                    throw new FormException(ResourceBundleHolder.get(WASBuildStep.class).format("InvalidRunIf", step.getRunIf(), iae.getMessage()), "runIf");
+                }
+            }
+
+            return step;
         }
 
         public FormValidation doCheckCommands(@QueryParameter String value) {
@@ -531,6 +998,114 @@ public class WASBuildStep extends Builder {
             return FormValidation.ok();
         }
 
+        public AutoCompletionCandidates doAutoCompleteReadyApplications(@QueryParameter String value) {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+            for(WASServer server: getWasServers()) {
+                CellTopology topology = TopologyCache.get(server.getName());
+                if(topology != null) {
+                    for(String application: topology.getApplications()) {
+                        if(value == null || application.startsWith(value)) {
+                            candidates.add(application);
+                        }
+                    }
+                }
+            }
+            return candidates;
+        }
+
+        /**
+         * Checks the names of nodes, servers, clusters and applications given
+         * in the parameters against the cached topology of the server (or of
+         * all the servers, if it isn't known).
+         */
+        public FormValidation doCheckScriptParameters(@QueryParameter String value, @QueryParameter String wasServerName) {
+            String error = null;
+            for(WASServer server: getWasServers()) {
+                if(wasServerName != null && !server.getName().equals(wasServerName)) {
+                    continue;
+                }
+                CellTopology topology = TopologyCache.get(server.getName());
+                if(topology != null) {
+                    error = TopologyCache.check(topology, value);
+                    if(error == null) {
+                        return FormValidation.ok();
+                    }
+                }
+            }
+
+            if(error != null) {
+                return FormValidation.warning(error);
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckConflictRetries(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckConsoleLimit(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckHarvestLogsLimit(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckReadyTimeout(@QueryParameter String value) {
+            return checkPositiveInteger(value, "TimeoutMustBeInteger");
+        }
+
+        public FormValidation doCheckRunIf(@QueryParameter String value) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    RunIfExpression.compile(value.trim());
+                }
+                catch(IllegalArgumentException iae) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format("InvalidRunIf", value.trim(), iae.getMessage()));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckSyncConcurrency(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckTimeout(@QueryParameter String value) {
+            return checkPositiveInteger(value, "TimeoutMustBeInteger");
+        }
+
+        public FormValidation doCheckTraceArchiveSize(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckTraceRotateCount(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        public FormValidation doCheckTraceRotateSize(@QueryParameter String value) {
+            return checkPositiveInteger(value, "SizeMustBeInteger");
+        }
+
+        /**
+         * Checks that the specified value, if any, is a positive integer.
+         */
+        private static FormValidation checkPositiveInteger(String value, String errorKey) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    if(Integer.parseInt(value.trim()) < 0) {
+                        return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format(errorKey));
+                    }
+                }
+                catch(NumberFormatException nfe) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format(errorKey));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
     }
 
 }
@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Hudson;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+import hudson.util.VariableResolver;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.localizer.ResourceBundleHolder;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * This builder brings the configuration of the cell of a {@link WASServer} to
+ * a desired state (cf. {@link DesiredState}).
+ *
+ * <p>The current configuration is read and compared with the desired state in
+ * a single wsadmin run (cf. the {@code scripts/applyConfig.py} script): Only
+ * the objects which differ are created or modified, the configuration is saved
+ * once and, if nothing has changed, neither saved nor synchronized.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WASConfigStep extends Builder {
+
+    private final static String CHANGES_MARKER = "CONFIGCHANGES";
+    private final static String DIFF_MARKER = "CONFIGDIFF";
+
+    /** Path, relative to the workspace, of the desired state file. */
+    private final String desiredStateFile;
+    /** If {@code true}, the differences are reported but not applied. */
+    private final boolean dryRun;
+    /** Allows overriding the password defined at the server level */
+    private Secret password;
+    /** Maximum number of nodes to be synchronized at the same time. */
+    private final int syncConcurrency;
+    /**
+     * If {@code true}, the nodes of the cell are synchronized once changes have
+     * been applied.
+     */
+    private final boolean syncNodes;
+    /** Allows overriding the user defined at the server level */
+    private final String user;
+    /** Identitifies the {@link WASServer} to be used. */
+    private final String wasServerName;
+
+    @DataBoundConstructor
+    public WASConfigStep(String desiredStateFile, boolean dryRun, int syncConcurrency, boolean syncNodes, String wasServerName, String user, String password) {
+        this.desiredStateFile = desiredStateFile.trim();
+        this.dryRun = dryRun;
+        this.syncConcurrency = Math.max(syncConcurrency, 0);
+        this.syncNodes = syncNodes;
+        this.wasServerName = wasServerName;
+        this.user = user != null ? user.trim() : null;
+        this.password = Secret.fromString(password);
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return (DescriptorImpl) super.getDescriptor();
+    }
+
+    public String getDesiredStateFile() {
+        return desiredStateFile;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public String getPassword() {
+        return password != null ? password.toString() : null;
+    }
+
+    public int getSyncConcurrency() {
+        return syncConcurrency;
+    }
+
+    public boolean isSyncNodes() {
+        return syncNodes;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the {@link WASServer} to use when the build takes place ({@code
+     * null} if none has been set).
+     */
+    public WASServer getWasServer() {
+        return Hudson.getInstance().getDescriptorByType(WASInstallation.DescriptorImpl.class).getServer(getWasServerName());
+    }
+
+    public String getWasServerName() {
+        return wasServerName;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        EnvVars env = build.getEnvironment(listener);
+        VariableResolver<String> varResolver = build.getBuildVariableResolver();
+
+        WASServer wasServer = getWasServer();
+        if(wasServer == null) {
+            listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoServerSet"));
+            return false;
+        }
+
+        // --- desired state ---
+
+        // the content of the file isn't expanded: ${...} are WAS variables
+        FilePath desiredStateFilePath = build.getWorkspace().child(Util.replaceMacro(env.expand(getDesiredStateFile()), varResolver));
+        if(!desiredStateFilePath.exists()) {
+            listener.fatalError(ResourceBundleHolder.get(WASConfigStep.class).format("DesiredStateFileNotFound", desiredStateFilePath.getRemote()));
+            return false;
+        }
+        DesiredState desiredState;
+        try {
+            desiredState = DesiredState.parse(desiredStateFilePath.readToString());
+        }
+        catch(IllegalArgumentException iae) {
+            listener.fatalError(ResourceBundleHolder.get(WASConfigStep.class).format("InvalidDesiredState", desiredStateFilePath.getRemote(), iae.getMessage()));
+            return false;
+        }
+        listener.getLogger().println(ResourceBundleHolder.get(WASConfigStep.class).format("ComparingConfig", desiredState.getObjects().size(), wasServer.getName()));
+
+        // --- diff & apply ---
+
+        Wsadmin wsadmin = Wsadmin.create(wasServer, getUser(), getPassword(), 0, listener, env, varResolver);
+        MarkerCollector collector = new MarkerCollector(listener.getLogger());
+        boolean success;
+        try {
+            success = new GeneratedScript("applyConfig.py")
+                    .set("DESIRED", desiredState.toScriptVariable())
+                    .set("DRY_RUN", isDryRun())
+                    .run(build.getWorkspace(), build.getBuiltOn(), launcher, listener, env, wsadmin, collector);
+        }
+        finally {
+            collector.close();
+        }
+        if(!success || collector.getMarkers(CHANGES_MARKER).isEmpty()) {
+            listener.fatalError(ResourceBundleHolder.get(WASConfigStep.class).format("ConfigNotApplied"));
+            return false;
+        }
+
+        List<ConfigDiffAction.ConfigDiff> diffs = new ArrayList<ConfigDiffAction.ConfigDiff>();
+        for(String marker: collector.getMarkers(DIFF_MARKER)) {
+            // <create|modify>\t<path>\t<attribute>\t<current>\t<desired>
+            String[] fields = marker.split("\t", 5);
+            if(fields.length == 5) {
+                diffs.add(new ConfigDiffAction.ConfigDiff(fields[1], fields[2], fields[3], fields[4], "create".equals(fields[0])));
+            }
+        }
+        build.addAction(new ConfigDiffAction(wasServer.getName(), diffs, !isDryRun()));
+
+        if(diffs.isEmpty()) {
+            // nothing has been saved: there's nothing to synchronize
+            listener.getLogger().println(ResourceBundleHolder.get(WASConfigStep.class).format("ConfigUpToDate", wasServer.getName()));
+            return true;
+        }
+        if(isDryRun()) {
+            listener.getLogger().println(ResourceBundleHolder.get(WASConfigStep.class).format("ConfigChangesNotApplied", collector.getMarkers(CHANGES_MARKER).get(0)));
+            return true;
+        }
+        listener.getLogger().println(ResourceBundleHolder.get(WASConfigStep.class).format("ConfigChangesApplied", collector.getMarkers(CHANGES_MARKER).get(0)));
+
+        // created objects may be nodes, servers, clusters, ...
+        for(ConfigDiffAction.ConfigDiff diff: diffs) {
+            if(diff.isCreation()) {
+                TopologyCache.invalidate(wasServer.getName());
+                break;
+            }
+        }
+
+        // --- node synchronization ---
+
+        if(isSyncNodes()) {
+            return new NodeSynchronizer(getSyncConcurrency()).synchronize(build, launcher, listener, env, wsadmin);
+        }
+
+        return true;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public DescriptorImpl() {
+            super(WASConfigStep.class);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return ResourceBundleHolder.get(WASConfigStep.class).format("DisplayName");
+        }
+
+        public WASServer[] getWasServers() {
+            return Hudson.getInstance().getDescriptorByType(WASInstallation.DescriptorImpl.class).getServers();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return getWasServers() != null && getWasServers().length > 0;
+        }
+
+        public FormValidation doCheckDesiredStateFile(@QueryParameter String value) {
+            if(StringUtils.isBlank(value)) {
+                return FormValidation.error(ResourceBundleHolder.get(WASConfigStep.class).format("DesiredStateFileMustBeSet"));
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckSyncConcurrency(@QueryParameter String value) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    if(Integer.parseInt(value.trim()) < 0) {
+                        return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format("SizeMustBeInteger"));
+                    }
+                }
+                catch(NumberFormatException nfe) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASBuildStep.class).format("SizeMustBeInteger"));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
+    }
+
+}
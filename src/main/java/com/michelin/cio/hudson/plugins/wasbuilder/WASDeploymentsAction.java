@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes, under {@code /was-deployments}, a JSON API to query the {@link
+ * DeploymentLedger}:
+ * <ul>
+ * <li>{@code GET latest}: Returns, for each server, the latest successful
+ * deployment of each application;</li>
+ * <li>{@code GET latest?server=...}: Returns the latest successful deployment
+ * of each application deployed to a server;</li>
+ * <li>{@code GET failures?server=...}: Returns the deployments to a server
+ * which have failed since the latest successful deployment of their
+ * application;</li>
+ * <li>{@code GET history?server=...&application=...}: Returns the latest
+ * deployments of an application to a server, the latest first.</li>
+ * </ul>
+ *
+ * <p>A deployment is represented by its {@code server}, {@code application},
+ * {@code version} and {@code digest} (if known), the {@code project} and
+ * {@code number} of the build, its {@code timestamp} and {@code duration} (in
+ * ms) and whether it was a {@code success}.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+@Extension
+public class WASDeploymentsAction implements RootAction {
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "was-deployments";
+    }
+
+    public void doLatest(StaplerRequest req, StaplerResponse rsp, @QueryParameter String server) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.READ);
+
+        DeploymentLedger ledger = DeploymentLedger.get();
+        if(StringUtils.isNotBlank(server)) {
+            writeJSON(rsp, toJSON(ledger.getLatest(server)));
+            return;
+        }
+
+        JSONObject servers = new JSONObject();
+        for(String serverName: ledger.getServers()) {
+            servers.element(serverName, toJSON(ledger.getLatest(serverName)));
+        }
+        writeJSON(rsp, servers);
+    }
+
+    public void doFailures(StaplerRequest req, StaplerResponse rsp, @QueryParameter String server) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.READ);
+        if(StringUtils.isBlank(server)) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "The server must be given");
+            return;
+        }
+
+        writeJSON(rsp, toJSON(DeploymentLedger.get().getFailures(server)));
+    }
+
+    public void doHistory(StaplerRequest req, StaplerResponse rsp, @QueryParameter String server, @QueryParameter String application) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.READ);
+        if(StringUtils.isBlank(server) || StringUtils.isBlank(application)) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Both server and application must be given");
+            return;
+        }
+
+        writeJSON(rsp, toJSON(DeploymentLedger.get().getHistory(server, application)));
+    }
+
+    private static JSONArray toJSON(List<DeploymentLedger.Deployment> deployments) {
+        JSONArray array = new JSONArray();
+        for(DeploymentLedger.Deployment deployment: deployments) {
+            array.add(deployment.toJSON());
+        }
+        return array;
+    }
+
+    private static void writeJSON(StaplerResponse rsp, JSON json) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString());
+    }
+
+}
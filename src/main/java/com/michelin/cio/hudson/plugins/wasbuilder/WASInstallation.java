@@ -25,6 +25,7 @@
 
 package com.michelin.cio.hudson.plugins.wasbuilder;
 
+import antlr.ANTLRException;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Functions;
@@ -32,12 +33,14 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.EnvironmentSpecific;
 import hudson.model.Hudson;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.remoting.Callable;
 import hudson.slaves.NodeSpecific;
 import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
 import hudson.util.FormValidation;
 import java.io.File;
 import java.io.IOException;
@@ -49,8 +52,8 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
 import net.sf.json.JSONObject;
@@ -82,9 +85,18 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
      */
     private final String wsadminCommand;
 
-    @DataBoundConstructor
     public WASInstallation(String name, String home, String wsadminCommand) {
-        super(name, removeTrailingBackslash(home), Collections.EMPTY_LIST);
+        this(name, home, wsadminCommand, Collections.<ToolProperty<?>>emptyList());
+    }
+
+    /**
+     * @param properties the tool properties; An {@link
+     * hudson.tools.InstallSourceProperty} with a {@link ThinClientInstaller}
+     * allows installing the thin client automatically on each node
+     */
+    @DataBoundConstructor
+    public WASInstallation(String name, String home, String wsadminCommand, List<? extends ToolProperty<?>> properties) {
+        super(name, removeTrailingBackslash(home), properties);
         if(StringUtils.isBlank(wsadminCommand)) {
             this.wsadminCommand = "${WSADMIN}";
         }
@@ -94,11 +106,11 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
     }
 
     public WASInstallation forEnvironment(EnvVars env) {
-        return new WASInstallation(getName(), env.expand(getHome()), getWsadminCommand());
+        return new WASInstallation(getName(), env.expand(getHome()), getWsadminCommand(), getProperties().toList());
     }
 
     public WASInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
-        return new WASInstallation(getName(), translateFor(node, log), getWsadminCommand());
+        return new WASInstallation(getName(), translateFor(node, log), getWsadminCommand(), getProperties().toList());
     }
 
     public static WASInstallation getWasInstallationByName(String installationName) {
@@ -121,28 +133,45 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
     public String getWsadminExecutable(Launcher launcher) throws IOException, InterruptedException {
         return launcher.getChannel().call(new Callable<String,IOException>() {
             public String call() throws IOException {
-                String wsadminFilePath = null;
-                // 1st try: do we work with a plain WAS installation?
-                File wsadminFile = getWsadminFile("bin");
-                if(wsadminFile.exists()) {
-                    wsadminFilePath = wsadminFile.getPath();
-                }
-                else {
-                    // 2nd try: do we work with an administration thin client?
-                    wsadminFile = getWsadminFile(null);
-                    if(wsadminFile.exists()) {
-                        wsadminFilePath = wsadminFile.getPath();
-                    }
-                    else {
-                        return null;
-                    }
+                File wsadminFile = findWsadminFile();
+                if(wsadminFile == null) {
+                    return null;
                 }
 
-                return getWsadminCommand().replace("${WSADMIN}", wsadminFilePath);
+                return getWsadminCommand().replace("${WSADMIN}", wsadminFile.getPath());
             }
         });
     }
 
+    /**
+     * Returns {@code wsadmin.bat}/{@code wsadmin.sh}, or {@code null} if it
+     * can't be found; To be called on the node the installation is set up for.
+     */
+    File findWsadminFile() {
+        // 1st try: do we work with a plain WAS installation?
+        File wsadminFile = getWsadminFile("bin");
+        if(wsadminFile.exists()) {
+            return wsadminFile;
+        }
+
+        // 2nd try: do we work with an administration thin client?
+        wsadminFile = getWsadminFile(null);
+        if(wsadminFile.exists()) {
+            return wsadminFile;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the {@code java} executable of the JDK WAS ships with (which the
+     * administration thin client doesn't include); To be called on the node the
+     * installation is set up for.
+     */
+    File getJavaExecutable() {
+        return new File(Util.replaceMacro(getHome(), EnvVars.masterEnvVars), "java/bin/" + (Functions.isWindows() ? "java.exe" : "java"));
+    }
+
     /**
      * Returns a {@link File} representing {@code wsadmin.bat}/{@code wsadmin.sh}.
      */
@@ -174,7 +203,13 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
     @Extension
     public static class DescriptorImpl extends ToolDescriptor<WASInstallation> {
 
+        /**
+         * Servers used to be persisted along with the descriptor: They're now
+         * persisted by {@link #serverStore}, this field is only read to migrate
+         * old configurations.
+         */
         private List<WASServer> servers;
+        private transient WASServerStore serverStore;
         private boolean createLocks = true;
 
         public DescriptorImpl() {
@@ -182,6 +217,19 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
             setInstallations(new WASInstallation[0]);
 
             load();
+
+            serverStore = new WASServerStore();
+            serverStore.load();
+            if(servers != null) {
+                try {
+                    serverStore.put(servers.toArray(new WASServer[0]));
+                    servers = null;
+                    save();
+                }
+                catch(IOException ioe) {
+                    LOGGER.log(Level.WARNING, "Failed to migrate the WAS servers", ioe);
+                }
+            }
         }
 
         /**
@@ -209,39 +257,64 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
             return ResourceBundleHolder.get(WASBuildStep.class).format("DisplayName");
         }
 
-        public WASServer[] getServers() {
-            if(servers != null) {
-                return servers.toArray(new WASServer[0]);
-            }
+        /**
+         * Returns the server with the given name, or {@code null} if there's
+         * no such server.
+         */
+        public WASServer getServer(String name) {
+            return serverStore.getServer(name);
+        }
 
-            return null;
+        /**
+         * Returns the servers, sorted by name.
+         */
+        public WASServer[] getServers() {
+            return serverStore.getServers();
         }
 
-        private void setServers(WASServer... servers) {
+        private void setServers(WASServer... servers) throws IOException {
             if(servers != null) {
-                if(this.servers != null) {
-                    this.servers.clear();
-                }
-                else {
-                    this.servers = new ArrayList<WASServer>();
-                }
-
-                // only servers which have a name are added to the list, other
-                // ones are dropped
+                // only servers which have a name are kept, other ones are
+                // dropped
+                List<WASServer> namedServers = new ArrayList<WASServer>();
                 for(WASServer server: servers) {
                     if(StringUtils.isNotEmpty(server.getName())) {
-                        this.servers.add(server);
+                        namedServers.add(server);
                     }
                 }
 
-                // we sort the servers list, otherwise it will become a pain to
-                // know what's already created and what has to be created
-                Collections.sort(this.servers, new Comparator<WASServer>() {
-                    public int compare(WASServer server1, WASServer server2) {
-                        return server1.getName().compareToIgnoreCase(server2.getName());
-                    }
-                });
+                serverStore.replaceAll(namedServers);
+            }
+        }
+
+        /**
+         * Adds the given servers, replacing the existing ones which have the
+         * same names; Only the given servers are persisted.
+         */
+        public void putServers(WASServer... servers) throws IOException {
+            serverStore.put(servers);
+            for(WASServer server: servers) {
+                // the server may now point to another cell
+                TopologyCache.invalidate(server.getName());
+            }
+
+            if(getCreateLocks()) {
+                createLocks();
+            }
+        }
+
+        /**
+         * Removes the server with the given name; Returns {@code false} if
+         * there's no such server.
+         */
+        public boolean removeServer(String name) {
+            WASServer server = serverStore.getServer(name);
+            if(server == null || !serverStore.remove(name)) {
+                return false;
             }
+            // a new server with the same name mustn't get its topology
+            TopologyCache.invalidate(server.getName());
+            return true;
         }
 
         @Override
@@ -250,10 +323,15 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
                     req.bindJSONToList(
                             WASInstallation.class,
                             formData.get("wasinstall")).toArray(new WASInstallation[0]));
-            setServers(
-                    req.bindJSONToList(
-                            WASServer.class,
-                            formData.get("wasserver")).toArray(new WASServer[0]));
+            try {
+                setServers(
+                        req.bindJSONToList(
+                                WASServer.class,
+                                formData.get("wasserver")).toArray(new WASServer[0]));
+            }
+            catch(IOException ioe) {
+                throw new FormException(ioe, "wasserver");
+            }
             setCreateLocks(formData.getBoolean("createLocks"));
 
             save();
@@ -468,6 +546,34 @@ public class WASInstallation extends ToolInstallation implements NodeSpecific<WA
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckTimeout(@QueryParameter String value) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    if(Integer.parseInt(value.trim()) < 0) {
+                        return FormValidation.error(ResourceBundleHolder.get(WASServer.class).format("TimeoutMustBeInteger"));
+                    }
+                }
+                catch(NumberFormatException nfe) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASServer.class).format("TimeoutMustBeInteger"));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckLabel(@QueryParameter String value) {
+            if(StringUtils.isNotBlank(value)) {
+                try {
+                    Label.parseExpression(value);
+                }
+                catch(ANTLRException ae) {
+                    return FormValidation.error(ResourceBundleHolder.get(WASServer.class).format("InvalidLabel", value, ae.getMessage()));
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckUser(@QueryParameter String value) {
             if(value == null || value.length() == 0) {
                 return FormValidation.warning(ResourceBundleHolder.get(WASServer.class).format("UserMustBeSetIfSecurityEnabled"));
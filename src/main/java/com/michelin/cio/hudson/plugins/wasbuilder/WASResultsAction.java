@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the results written by wsadmin scripts into the {@link
+ * ResultsChannel}: They're displayed on the build page and exported as
+ * environment variables to the next build steps, prefixed with {@link
+ * #ENV_VAR_PREFIX} so that they can't override the variables of the build
+ * (results whose key isn't a valid identifier aren't exported).
+ *
+ * <p>A single action is attached to a build: The results of all its {@link
+ * WASBuildStep}s are merged, the latest ones overriding the former ones.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WASResultsAction implements EnvironmentContributingAction {
+
+    public final static String ENV_VAR_PREFIX = "WAS_RESULT_";
+
+    private final LinkedHashMap<String,String> results = new LinkedHashMap<String,String>();
+
+    /**
+     * Adds the given results to the build, creating its action if required.
+     */
+    public static void addTo(AbstractBuild<?, ?> build, Map<String,String> results) {
+        synchronized(build) {
+            WASResultsAction action = build.getAction(WASResultsAction.class);
+            if(action == null) {
+                action = new WASResultsAction();
+                build.addAction(action);
+            }
+            action.putAll(results);
+        }
+    }
+
+    public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
+        synchronized(results) {
+            for(Map.Entry<String,String> result: results.entrySet()) {
+                // only valid variable names are exported
+                if(result.getKey().matches("[A-Za-z_][A-Za-z0-9_]*")) {
+                    env.put(ENV_VAR_PREFIX + result.getKey(), result.getValue());
+                }
+            }
+        }
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public Map<String,String> getResults() {
+        synchronized(results) {
+            return Collections.unmodifiableMap(new LinkedHashMap<String,String>(results));
+        }
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    private void putAll(Map<String,String> newResults) {
+        synchronized(results) {
+            for(Map.Entry<String,String> result: newResults.entrySet()) {
+                results.remove(result.getKey());
+                results.put(result.getKey(), result.getValue());
+            }
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ package com.michelin.cio.hudson.plugins.wasbuilder;
 
 import hudson.util.Secret;
 import java.util.Arrays;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -55,9 +56,19 @@ public class WASServer {
     private final int port;
     private final String user;
     private Secret password;    // this one can't be final, otherwise we get some NullPointerExceptions when using it
+    /**
+     * Maximum duration, in minutes, of a wsadmin run against this server
+     * ({@code 0} means no timeout); Can be overridden at the build step level.
+     */
+    private final int timeout;
+    /**
+     * Label expression restricting the nodes wsadmin can be run on to reach
+     * this server (for example the ones which are in the same datacenter).
+     */
+    private final String label;
 
     @DataBoundConstructor
-    public WASServer(String wasInstallationName, String name, String conntype, String host, int port, String user, String password) {
+    public WASServer(String wasInstallationName, String name, String conntype, String host, int port, String user, String password, int timeout, String label) {
         this.wasInstallationName = wasInstallationName;
         this.name = name;
         if(conntype == null || !Arrays.asList(CONNTYPES).contains(conntype)) {
@@ -72,6 +83,8 @@ public class WASServer {
         this.port = port;
         this.user = user;
         this.password = Secret.fromString(password);
+        this.timeout = Math.max(timeout, 0);
+        this.label = StringUtils.trimToNull(label);
     }
 
     public String getConntype() {
@@ -82,6 +95,10 @@ public class WASServer {
         return host;
     }
 
+    public String getLabel() {
+        return label;
+    }
+
     public String getName() {
         return name;
     }
@@ -94,6 +111,10 @@ public class WASServer {
         return port;
     }
 
+    public int getTimeout() {
+        return timeout;
+    }
+
     public String getUser() {
         return user;
     }
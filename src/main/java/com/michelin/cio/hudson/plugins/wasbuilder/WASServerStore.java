@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the {@link WASServer}s, each one in its own file of the {@code
+ * $HUDSON_HOME/was-builder/servers} folder, so that adding, updating or
+ * removing a server only rewrites the corresponding file.
+ *
+ * <p>Readers never block: The servers are published through an immutable
+ * index which is replaced (copy-on-write) on each modification.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WASServerStore {
+
+    private final static String FOLDER = "was-builder/servers";
+
+    /** Servers, sorted by name (case insensitive). */
+    private volatile SortedMap<String,WASServer> index = Collections.unmodifiableSortedMap(new TreeMap<String,WASServer>(String.CASE_INSENSITIVE_ORDER));
+    /** Same as {@link #index}, as an array. */
+    private volatile WASServer[] servers = new WASServer[0];
+
+    private final File folder;
+
+    public WASServerStore() {
+        this(new File(Hudson.getInstance().getRootDir(), FOLDER));
+    }
+
+    WASServerStore(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Loads the servers from the disk.
+     */
+    public synchronized void load() {
+        SortedMap<String,WASServer> newIndex = new TreeMap<String,WASServer>(String.CASE_INSENSITIVE_ORDER);
+
+        File[] files = folder.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".xml");
+            }
+        });
+        if(files != null) {
+            for(File file: files) {
+                try {
+                    WASServer server = (WASServer) new XmlFile(Hudson.XSTREAM, file).read();
+                    newIndex.put(server.getName(), server);
+                }
+                catch(IOException ioe) {
+                    LOGGER.log(Level.WARNING, "Failed to load the WAS server from " + file, ioe);
+                }
+            }
+        }
+
+        publish(newIndex);
+    }
+
+    public WASServer getServer(String name) {
+        if(name == null) {
+            return null;
+        }
+        return index.get(name);
+    }
+
+    /**
+     * Returns all the servers, sorted by name.
+     */
+    public WASServer[] getServers() {
+        return servers.clone();
+    }
+
+    /**
+     * Adds the given servers, replacing the existing ones with the same names.
+     */
+    public synchronized void put(WASServer... newServers) throws IOException {
+        SortedMap<String,WASServer> newIndex = new TreeMap<String,WASServer>(index);
+        try {
+            for(WASServer server: newServers) {
+                // a server may be renamed with a different case
+                WASServer previous = newIndex.remove(server.getName());
+                if(previous != null && !previous.getName().equals(server.getName())) {
+                    getFile(previous.getName()).delete();
+                }
+                getFile(server.getName()).write(server);
+                newIndex.put(server.getName(), server);
+            }
+        }
+        finally {
+            // what has been written must be visible, even on failure
+            publish(newIndex);
+        }
+    }
+
+    /**
+     * Removes the server with the given name; Returns {@code false} if there
+     * is no such server.
+     */
+    public synchronized boolean remove(String name) {
+        WASServer server = getServer(name);
+        if(server == null) {
+            return false;
+        }
+
+        getFile(server.getName()).delete();
+        SortedMap<String,WASServer> newIndex = new TreeMap<String,WASServer>(index);
+        newIndex.remove(name);
+        publish(newIndex);
+        return true;
+    }
+
+    /**
+     * Replaces all the servers with the given ones; Only the files of the
+     * servers which have been added, modified or removed are written.
+     */
+    public synchronized void replaceAll(Collection<WASServer> newServers) throws IOException {
+        SortedMap<String,WASServer> newIndex = new TreeMap<String,WASServer>(String.CASE_INSENSITIVE_ORDER);
+        for(WASServer server: newServers) {
+            newIndex.put(server.getName(), server);
+        }
+
+        try {
+            for(WASServer server: index.values()) {
+                WASServer newServer = newIndex.get(server.getName());
+                if(newServer == null || !newServer.getName().equals(server.getName())) {
+                    getFile(server.getName()).delete();
+                }
+            }
+            for(WASServer server: newIndex.values()) {
+                XmlFile file = getFile(server.getName());
+                WASServer previous = index.get(server.getName());
+                if(previous == null || !previous.getName().equals(server.getName())) {
+                    file.write(server);
+                }
+                else if(!file.exists() || !Hudson.XSTREAM.toXML(server).equals(Hudson.XSTREAM.toXML(previous))) {
+                    file.write(server);
+                }
+            }
+        }
+        finally {
+            publish(newIndex);
+        }
+    }
+
+    private void publish(SortedMap<String,WASServer> newIndex) {
+        index = Collections.unmodifiableSortedMap(newIndex);
+        servers = newIndex.values().toArray(new WASServer[newIndex.size()]);
+    }
+
+    private XmlFile getFile(String name) {
+        return new XmlFile(Hudson.XSTREAM, new File(folder, Util.rawEncode(name) + ".xml"));
+    }
+
+    private final static Logger LOGGER = Logger.getLogger(WASServerStore.class.getName());
+
+}
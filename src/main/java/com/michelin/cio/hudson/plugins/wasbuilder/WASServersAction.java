@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes, under {@code /was-servers}, a REST API to manage the {@link
+ * WASServer}s one by one, without submitting the whole configuration form:
+ * <ul>
+ * <li>{@code GET list}: Returns the servers (without their password) as a
+ * JSON array;</li>
+ * <li>{@code POST put}: Adds or updates the servers given, as a JSON object or
+ * array, in the request body;</li>
+ * <li>{@code POST delete?name=...}: Removes a server.</li>
+ * </ul>
+ *
+ * <p>The JSON representation of a server has the same fields as the
+ * configuration form: {@code name}, {@code wasInstallationName}, {@code
+ * conntype}, {@code host}, {@code port}, {@code user}, {@code password},
+ * {@code timeout} and {@code label}.</p>
+ *
+ * <p>When a server with the same name already exists, the JSON object is
+ * merged into it: The fields which are absent keep their current value. In
+ * particular, the password is only changed if a {@code password} field is
+ * given, since {@code list} never returns it.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+@Extension
+public class WASServersAction implements RootAction {
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "was-servers";
+    }
+
+    public void doList(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+        JSONArray servers = new JSONArray();
+        for(WASServer server: getDescriptor().getServers()) {
+            servers.add(toJSON(server));
+        }
+        writeJSON(rsp, servers);
+    }
+
+    public void doPut(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if(!"POST".equals(req.getMethod())) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        List<WASServer> servers;
+        try {
+            servers = parse(readBody(req), getDescriptor().getServers());
+        }
+        catch(IllegalArgumentException iae) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, iae.getMessage());
+            return;
+        }
+
+        getDescriptor().putServers(servers.toArray(new WASServer[0]));
+        writeJSON(rsp, new JSONObject().element("updated", servers.size()));
+    }
+
+    public void doDelete(StaplerRequest req, StaplerResponse rsp, @QueryParameter String name) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if(!"POST".equals(req.getMethod())) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        if(!getDescriptor().removeServer(name)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND, "No such WAS server: " + name);
+            return;
+        }
+        rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    static WASInstallation.DescriptorImpl getDescriptor() {
+        return Hudson.getInstance().getDescriptorByType(WASInstallation.DescriptorImpl.class);
+    }
+
+    /**
+     * Parses a JSON object, or array of objects, into servers, merging each of
+     * them with the current server of the same name, if any.
+     *
+     * @throws IllegalArgumentException if the JSON is not valid or if a
+     * server has no name or no host
+     */
+    static List<WASServer> parse(String json, WASServer... current) {
+        Object parsed;
+        try {
+            String trimmed = json.trim();
+            if(trimmed.startsWith("[")) {
+                parsed = JSONArray.fromObject(trimmed);
+            }
+            else {
+                parsed = JSONObject.fromObject(trimmed);
+            }
+        }
+        catch(JSONException je) {
+            throw new IllegalArgumentException("Invalid JSON: " + je.getMessage());
+        }
+
+        List<WASServer> servers = new ArrayList<WASServer>();
+        if(parsed instanceof JSONArray) {
+            JSONArray array = (JSONArray) parsed;
+            for(int i = 0; i < array.size(); i++) {
+                if(!(array.get(i) instanceof JSONObject)) {
+                    throw new IllegalArgumentException("Invalid JSON: Element " + i + " of the array is not an object");
+                }
+                servers.add(fromJSON(array.getJSONObject(i), current));
+            }
+        }
+        else {
+            servers.add(fromJSON((JSONObject) parsed, current));
+        }
+        return servers;
+    }
+
+    /**
+     * Creates a server from a JSON object, the absent fields being taken from
+     * the current server of the same name (or set to their default value if
+     * there's none).
+     */
+    static WASServer fromJSON(JSONObject json, WASServer... current) {
+        String name = json.optString("name");
+        if(StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("A WAS server must have a name");
+        }
+
+        WASServer server = find(name, current);
+
+        String host = optString(json, "host", server != null ? server.getHost() : null);
+        if(StringUtils.isBlank(host)) {
+            throw new IllegalArgumentException("The WAS server " + name + " must have a host");
+        }
+
+        return new WASServer(
+                optString(json, "wasInstallationName", server != null ? server.getWasInstallationName() : ""),
+                name,
+                optString(json, "conntype", server != null ? server.getConntype() : WASServer.CONNTYPE_SOAP),
+                host,
+                optInt(json, "port", server != null ? server.getPort() : 0),
+                optString(json, "user", server != null ? server.getUser() : ""),
+                optString(json, "password", server != null ? server.getPassword() : ""),
+                optInt(json, "timeout", server != null ? server.getTimeout() : 0),
+                optString(json, "label", server != null ? server.getLabel() : ""));
+    }
+
+    /**
+     * Returns the server of the given name, ignoring the case as {@link
+     * WASServerStore} does, or {@code null} if there's none.
+     */
+    private static WASServer find(String name, WASServer... servers) {
+        if(servers != null) {
+            for(WASServer server: servers) {
+                if(name.equalsIgnoreCase(server.getName())) {
+                    return server;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String optString(JSONObject json, String key, String defaultValue) {
+        return json.has(key) ? json.optString(key) : defaultValue;
+    }
+
+    private static int optInt(JSONObject json, String key, int defaultValue) {
+        return json.has(key) ? json.optInt(key) : defaultValue;
+    }
+
+    static JSONObject toJSON(WASServer server) {
+        return new JSONObject()
+                .element("name", server.getName())
+                .element("wasInstallationName", server.getWasInstallationName())
+                .element("conntype", server.getConntype())
+                .element("host", server.getHost())
+                .element("port", server.getPort())
+                .element("user", server.getUser())
+                .element("timeout", server.getTimeout())
+                .element("label", server.getLabel());
+    }
+
+    private static String readBody(StaplerRequest req) throws IOException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while((read = req.getReader().read(buffer)) >= 0) {
+            body.append(buffer, 0, read);
+        }
+        return body.toString();
+    }
+
+    private static void writeJSON(StaplerResponse rsp, JSON json) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString());
+    }
+
+}
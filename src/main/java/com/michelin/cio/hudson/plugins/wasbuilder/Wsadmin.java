@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.VariableResolver;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Builds the command line of wsadmin for a given {@link WASServer} and runs it.
+ *
+ * <p>This class doesn't depend on any build: It only needs a node, a launcher
+ * and an environment, so that it can be shared by all the build steps of this
+ * plug-in, whatever the way they are run.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class Wsadmin {
+
+    private final String password;
+    /** Maximum duration of a wsadmin run, in minutes ({@code 0} for no limit). */
+    private final int timeout;
+    private final String user;
+    private final WASServer wasServer;
+
+    /**
+     * @param user the user to connect with ({@code null} to connect without
+     * credentials)
+     * @param password the password of {@code user}
+     * @param timeout the maximum duration of a wsadmin run, in minutes ({@code
+     * 0} means no timeout)
+     */
+    public Wsadmin(WASServer wasServer, String user, String password, int timeout) {
+        this.password = password;
+        this.timeout = timeout;
+        this.user = user;
+        this.wasServer = wasServer;
+    }
+
+    /**
+     * Returns the {@link Wsadmin} to be used by a build step to run commands
+     * against the given server, with the user/password defined at the build
+     * step level if any (macros being expanded), at the server level
+     * otherwise.
+     */
+    public static Wsadmin create(WASServer wasServer, String user, String password, int timeout, TaskListener listener, EnvVars env, VariableResolver<String> varResolver) {
+        // --- user/password (defined in the corresponding WASServer but can be overriden) ---
+
+        String wsadminUser = null;
+        String wsadminPassword = null;
+        if(!StringUtils.isEmpty(user)) {
+            wsadminUser = Util.replaceMacro(env.expand(user), varResolver);
+            wsadminPassword = Util.replaceMacro(env.expand(password), varResolver);
+            listener.getLogger().println("Using user " + wsadminUser + " defined at the build step level");
+        }
+        else if(!StringUtils.isEmpty(wasServer.getUser())) {
+            wsadminUser = wasServer.getUser();
+            wsadminPassword = wasServer.getPassword();
+            listener.getLogger().println("Using user " + wsadminUser + " defined at the server level");
+        }
+
+        // --- timeout (defined in the corresponding WASServer but can be overriden) ---
+
+        return new Wsadmin(wasServer, wsadminUser, wsadminPassword, timeout > 0 ? timeout : wasServer.getTimeout());
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public WASServer getWasServer() {
+        return wasServer;
+    }
+
+    /**
+     * Returns the arguments to be used to start wsadmin on {@code node} and to
+     * connect it to the server, or {@code null} if an error occurred (in which
+     * case it has already been reported to the listener).
+     */
+    public ArgumentListBuilder createArgs(Node node, Launcher launcher, TaskListener listener, EnvVars env, String language) throws IOException, InterruptedException {
+        // --- wsadmin.bat/wsadmin.sh ---
+
+        ArgumentListBuilder args = new ArgumentListBuilder();
+
+        WASInstallation wasInstallation = wasServer.getWasInstallation();
+        if(wasInstallation != null) {
+            wasInstallation = wasInstallation.forNode(node, listener);
+            wasInstallation = wasInstallation.forEnvironment(env);
+
+            String wsadminExecutable = wasInstallation.getWsadminExecutable(launcher);
+            if(wsadminExecutable != null) {
+                for(String wsadminExecutablePart: wsadminExecutable.split(" ")) {
+                    args.add(wsadminExecutablePart);
+                }
+            }
+            else {
+                listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoWsadminExecutable", wasInstallation.getName(), wasServer.getName()));
+                // let's avoid this node for this server for a while
+                ServerAffinity.get().recordUnavailable(wasServer.getName(), node.getNodeName());
+                return null;
+            }
+        }
+        else {
+            listener.fatalError(ResourceBundleHolder.get(WASBuildStep.class).format("NoInstallationSet", wasServer.getName()));
+            return null;
+        }
+
+        // --- server parameters (defined in the corresponding WASServer) ---
+
+        args.add("-conntype", wasServer.getConntype());
+        args.add("-host", wasServer.getHost());
+        args.add("-port", Integer.toString(wasServer.getPort()));
+
+        // --- user/password ---
+
+        if(!StringUtils.isEmpty(user)) {
+            args.add("-user", user);
+            if(!StringUtils.isEmpty(password)) {
+                args.add("-password");
+                args.addMasked(password);
+            }
+        }
+
+        // --- shared class cache (cf. SharedClassCacheProperty) ---
+
+        SharedClassCacheProperty sharedClassCache = wasInstallation.getProperties().get(SharedClassCacheProperty.class);
+        if(sharedClassCache != null) {
+            for(String javaOption: sharedClassCache.getJavaOptions(wasInstallation, node, launcher, listener)) {
+                args.add("-javaoption", javaOption);
+            }
+        }
+
+        // --- lang ---
+
+        args.add("-lang", language.toLowerCase());
+
+        return args;
+    }
+
+    /**
+     * Runs wsadmin, sending its output to {@code out}, and waits for its
+     * completion; Returns {@code true} if wsadmin has succeeded.
+     */
+    public boolean run(ArgumentListBuilder args, Launcher launcher, TaskListener listener, EnvVars env, OutputStream out) throws IOException, InterruptedException {
+        String cookie = WsadminWatchdog.newCookie();
+        EnvVars wsadminEnv = new EnvVars(env);
+        wsadminEnv.put(WsadminWatchdog.COOKIE_ENV_VAR, cookie);
+
+        Proc proc = launcher.launch().cmds(args).envs(wsadminEnv).stdout(out).start();
+        if(timeout <= 0) {
+            return proc.join() == 0;
+        }
+
+        WsadminWatchdog watchdog = new WsadminWatchdog(proc, launcher, listener, cookie, timeout);
+        watchdog.start();
+        try {
+            int exitCode = proc.join();
+            return exitCode == 0 && !watchdog.hasFired();
+        }
+        finally {
+            // if the watchdog has fired, it is still busy terminating the JVM
+            // (the wsadmin shell may have exited before it): we wait for it
+            watchdog.cancel();
+            watchdog.join();
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jvnet.localizer.ResourceBundleHolder;
+
+/**
+ * Terminates a wsadmin run which didn't complete within the allowed time.
+ *
+ * <p>When the timeout expires, the watchdog escalates as follows:</p>
+ * <ol>
+ * <li>On Unix, a {@code SIGQUIT} is sent to the wsadmin JVM so that it dumps
+ * its threads (a javacore file for IBM JVMs, the build log for other ones);
+ * </li>
+ * <li>On Unix, a {@code SIGTERM} is then sent to the JVM to let it exit
+ * gracefully;</li>
+ * <li>If the JVM is still running after the grace period, it gets a
+ * {@code SIGKILL} and the whole process tree is killed.</li>
+ * </ol>
+ *
+ * <p>If the JVM can't be found (the platform doesn't expose the environment of
+ * the processes, or wsadmin is launched in an unexpected way), the watchdog
+ * goes straight to the last step, so that the build never waits forever for a
+ * hung wsadmin.</p>
+ *
+ * <p>The wsadmin JVM is identified on the node through the
+ * {@link #COOKIE_ENV_VAR} environment variable, which must be passed to the
+ * launched process, and through its main class (cf. {@link #isWsadminJvm(List)}):
+ * The {@code wsadmin.sh} shell which launched it carries the cookie too, but
+ * must not be signaled, else it would exit and leave the JVM running alone. Once the watchdog has fired, it
+ * keeps going until the JVM has actually exited, even if the shell has
+ * completed in the meantime.</p>
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WsadminWatchdog extends Thread {
+
+    /** Environment variable used to find back the wsadmin processes. */
+    public final static String COOKIE_ENV_VAR = "WAS_BUILDER_COOKIE";
+
+    /** Time, in seconds, given to the JVM to write its thread dump. */
+    private final static int THREAD_DUMP_GRACE_PERIOD = 10;
+    /** Time, in seconds, given to wsadmin to exit once it has been interrupted. */
+    private final static int INTERRUPT_GRACE_PERIOD = 30;
+    /** Time, in seconds, given to the system to reap a killed JVM. */
+    private final static int KILL_GRACE_PERIOD = 10;
+    /**
+     * Main classes run by the wsadmin JVM: The former by {@code wsadmin.sh}
+     * from a WAS installation, the latter by the Administration Thin Client.
+     */
+    final static String[] WSADMIN_MAIN_CLASSES = { "com.ibm.ws.admin.services.WsAdmin", "com.ibm.ws.scripting.WasxShell" };
+    /** Executables which can launch a wsadmin JVM without being one. */
+    private final static String[] SHELLS = { "sh", "bash", "ksh", "csh", "tcsh", "zsh", "dash", "cmd.exe", "cmd" };
+
+    private final String cookie;
+    private final Launcher launcher;
+    private final TaskListener listener;
+    private final Proc proc;
+    private final int timeout;
+    private boolean done;
+    private volatile boolean fired;
+
+    /**
+     * @param timeout the timeout, in minutes
+     */
+    public WsadminWatchdog(Proc proc, Launcher launcher, TaskListener listener, String cookie, int timeout) {
+        super("WAS builder watchdog (" + cookie + ")");
+        setDaemon(true);
+        this.cookie = cookie;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.proc = proc;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Generates a value to be set for {@link #COOKIE_ENV_VAR}.
+     */
+    public static String newCookie() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Stops watching the process: To be called once wsadmin has completed.
+     */
+    public synchronized void cancel() {
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns {@code true} if the timeout has expired and the process has been
+     * terminated by the watchdog.
+     */
+    public boolean hasFired() {
+        return fired;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if(!await(TimeUnit.MINUTES.toMillis(timeout))) {
+                return;
+            }
+
+            fired = true;
+            listener.error(ResourceBundleHolder.get(WASBuildStep.class).format("WsadminTimedOut", timeout));
+
+            if(!launcher.isUnix()) {
+                proc.kill();
+                return;
+            }
+
+            // 1st step: we ask the JVM for a thread dump (QUIT doesn't stop
+            // the JVM, so we just give it the time to write the dump)
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("RequestingThreadDump"));
+            if(launcher.getChannel().call(new SignalProcesses(cookie, "QUIT")) == 0) {
+                listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("WsadminJvmNotFound"));
+                kill();
+                return;
+            }
+            if(awaitExit(THREAD_DUMP_GRACE_PERIOD)) {
+                return;
+            }
+
+            // 2nd step: we let wsadmin a chance to exit by itself
+            listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("InterruptingWsadmin"));
+            if(launcher.getChannel().call(new SignalProcesses(cookie, "TERM")) > 0 && awaitExit(INTERRUPT_GRACE_PERIOD)) {
+                return;
+            }
+
+            // last step: no more mercy
+            kill();
+        }
+        catch(InterruptedException ie) {
+            // we've been asked to stop
+        }
+        catch(IOException ioe) {
+            LOGGER.log(Level.WARNING, "Failed to terminate wsadmin", ioe);
+            try {
+                proc.kill();
+            }
+            catch(Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to kill wsadmin", e);
+            }
+        }
+    }
+
+    /**
+     * Kills the wsadmin JVM and everything launched with the cookie: Unlike
+     * the signals, this doesn't depend on the JVM being found on the node.
+     */
+    private void kill() throws IOException, InterruptedException {
+        listener.getLogger().println(ResourceBundleHolder.get(WASBuildStep.class).format("KillingWsadmin"));
+        launcher.getChannel().call(new SignalProcesses(cookie, "KILL"));
+        proc.kill();
+        launcher.kill(Collections.singletonMap(COOKIE_ENV_VAR, cookie));
+        awaitExit(KILL_GRACE_PERIOD);
+    }
+
+    /**
+     * Waits for the specified duration; Returns {@code false} if the watchdog
+     * has been cancelled in the meantime.
+     */
+    private synchronized boolean await(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while(!done && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return !done;
+    }
+
+    /**
+     * Waits, for at most the specified number of seconds, for the wsadmin JVM
+     * to exit; Returns {@code true} if it has exited.
+     *
+     * <p>Unlike {@link #await(long)}, this method doesn't return when the
+     * watchdog gets cancelled: The wsadmin shell may have completed while its
+     * JVM is still running.</p>
+     */
+    private boolean awaitExit(int seconds) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        while(launcher.getChannel().call(new SignalProcesses(cookie, null)) > 0) {
+            if(System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1000);
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the given command line is the one of a wsadmin
+     * JVM (as opposed to the {@code wsadmin.sh}/{@code wsadmin.bat} script
+     * which launched it).
+     *
+     * <p>The executable isn't required to be named {@code java}, since
+     * wrappers may rename it: Any process running one of the
+     * {@link #WSADMIN_MAIN_CLASSES} which isn't a shell is a wsadmin JVM.</p>
+     */
+    static boolean isWsadminJvm(List<String> arguments) {
+        if(arguments == null || arguments.isEmpty()) {
+            return false;
+        }
+
+        String executable = arguments.get(0).replace('\\', '/');
+        executable = executable.substring(executable.lastIndexOf('/') + 1);
+        if(executable.startsWith("-")) {
+            // login shells
+            executable = executable.substring(1);
+        }
+        for(String shell: SHELLS) {
+            if(executable.equalsIgnoreCase(shell)) {
+                return false;
+            }
+        }
+
+        for(String argument: arguments.subList(1, arguments.size())) {
+            for(String mainClass: WSADMIN_MAIN_CLASSES) {
+                if(argument.equals(mainClass)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a signal to the wsadmin JVM of the node which carries the given
+     * cookie; Returns the number of signaled processes.
+     *
+     * <p>If the signal is {@code null}, no signal is sent: The processes are
+     * only counted.</p>
+     */
+    private static class SignalProcesses implements Callable<Integer,IOException> {
+
+        private final String cookie;
+        private final String signal;
+
+        SignalProcesses(String cookie, String signal) {
+            this.cookie = cookie;
+            this.signal = signal;
+        }
+
+        public Integer call() throws IOException {
+            int signaled = 0;
+
+            if(Functions.isWindows()) {
+                return signaled;
+            }
+
+            for(OSProcess process: ProcessTree.get()) {
+                try {
+                    if(!cookie.equals(process.getEnvironmentVariables().get(COOKIE_ENV_VAR)) || !isWsadminJvm(process.getArguments())) {
+                        continue;
+                    }
+                    if(signal == null) {
+                        signaled++;
+                        continue;
+                    }
+                    Process kill = new ProcessBuilder("kill", "-" + signal, Integer.toString(process.getPid())).start();
+                    if(kill.waitFor() == 0) {
+                        signaled++;
+                    }
+                }
+                catch(InterruptedException ie) {
+                    throw new IOException("Interrupted while signaling process " + process.getPid());
+                }
+                catch(Exception e) {
+                    // the process may have already exited, or may belong to
+                    // another user: let's go on with the other ones
+                    LOGGER.log(Level.FINE, "Can't signal process " + process.getPid(), e);
+                }
+            }
+
+            return signaled;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    private final static Logger LOGGER = Logger.getLogger(WsadminWatchdog.class.getName());
+
+}
@@ -0,0 +1,151 @@
+#
+# Brings the configuration of the cell wsadmin is connected to to a desired
+# state: Only the objects which differ from it are created or modified, and
+# the configuration is saved once, only if something has changed.
+#
+# The objects are looked up with one AdminConfig.list() query per type and
+# scope, shared by all the objects of that type (rather than one getid() per
+# object); The attributes of the objects which exist are then read.
+#
+# Expected variables:
+#   DESIRED  list of [containment path, parent containment path, type, name,
+#            {attribute: value}], one per configuration object
+#   DRY_RUN  if true, the differences are reported but not applied
+#
+# For each difference, the following line is printed (fields are separated by
+# tabs; the values of password attributes are masked):
+#   WASBUILDER-CONFIGDIFF <create|modify> <path> <attribute> <current> <desired>
+# Then, once done:
+#   WASBUILDER-CONFIGCHANGES <number of created or modified objects>
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import java.lang.System
+
+def printDiff(operation, path, attribute, current, desired):
+    if attribute.lower().find('password') >= 0:
+        current = desired = '****'
+    java.lang.System.out.println('WASBUILDER-CONFIGDIFF %s' % '\t'.join([operation, path, attribute, current, desired]))
+
+# (type, scope ID) -> IDs of the objects of that type within the scope
+listed = {}
+# containment path -> ID (None if the object doesn't exist)
+resolved = {}
+
+def listIds(type, scope):
+    key = (type, scope)
+    if not listed.has_key(key):
+        if scope is None:
+            output = AdminConfig.list(type)
+        else:
+            output = AdminConfig.list(type, scope)
+        listed[key] = [id.strip() for id in output.splitlines() if id.strip()]
+    return listed[key]
+
+def nameOf(id):
+    # IDs look like name(cells/cell/...|document.xml#Type_123)
+    return id[:id.rfind('(cells')]
+
+def folderOf(id):
+    return id[id.rfind('(cells') + 1:id.rfind('|')]
+
+def findChild(path, type, name, parent):
+    candidates = []
+    for id in listIds(type, parent):
+        # just like with getid(), an empty name matches any object
+        if not name or nameOf(id) == name:
+            candidates.append(id)
+    if len(candidates) > 1 and parent is not None:
+        # list() returns all the objects within the scope: the ones stored in
+        # the folder of the parent are its direct children
+        children = [id for id in candidates if folderOf(id) == folderOf(parent)]
+        if children:
+            candidates = children
+    if len(candidates) > 1:
+        raise ValueError('%s matches %d configuration objects' % (path, len(candidates)))
+    if candidates:
+        return candidates[0]
+    return None
+
+def getid(path):
+    id = None
+    prefix = '/'
+    for segment in [segment for segment in path.split('/') if segment]:
+        prefix = prefix + segment + '/'
+        if not resolved.has_key(prefix):
+            fields = segment.split(':', 1)
+            if len(fields) == 1:
+                fields.append('')
+            resolved[prefix] = findChild(prefix, fields[0], fields[1], id)
+        id = resolved[prefix]
+        if id is None:
+            break
+    return id
+
+def currentAttributes(id):
+    # all the attributes of the object are read at once
+    attributes = {}
+    for line in AdminConfig.show(id).splitlines():
+        line = line.strip()
+        if not (line.startswith('[') and line.endswith(']')):
+            continue
+        fields = line[1:-1].split(' ', 1)
+        value = ''
+        if len(fields) == 2:
+            value = fields[1]
+            if len(value) >= 2 and value[0] == '"' and value[-1] == '"':
+                value = value[1:-1]
+        attributes[fields[0]] = value
+    return attributes
+
+changes = 0
+created = []
+try:
+    for path, parentPath, type, name, desired in DESIRED:
+        attributeNames = desired.keys()
+        attributeNames.sort()
+
+        id = getid(path)
+        if id is None:
+            parent = None
+            if parentPath:
+                parent = getid(parentPath)
+            if parent is None and not (DRY_RUN and parentPath in created):
+                raise ValueError("%s doesn't exist and can't be created: %s doesn't exist" % (path, parentPath or 'its parent'))
+
+            attributes = []
+            if name and not desired.has_key('name'):
+                attributes.append(['name', name])
+            for attribute in attributeNames:
+                attributes.append([attribute, desired[attribute]])
+            for attribute, value in attributes:
+                printDiff('create', path, attribute, '', value)
+            if not attributes:
+                printDiff('create', path, '', '', '')
+
+            if not DRY_RUN:
+                resolved[path] = AdminConfig.create(type, parent, attributes)
+            created.append(path)
+            changes = changes + 1
+        else:
+            current = currentAttributes(id)
+            modified = []
+            for attribute in attributeNames:
+                if current.get(attribute, '') != desired[attribute]:
+                    printDiff('modify', path, attribute, current.get(attribute, ''), desired[attribute])
+                    modified.append([attribute, desired[attribute]])
+
+            if modified:
+                if not DRY_RUN:
+                    AdminConfig.modify(id, modified)
+                changes = changes + 1
+
+    if changes and not DRY_RUN:
+        AdminConfig.save()
+except:
+    # nothing is applied unless everything can be
+    AdminConfig.reset()
+    raise
+
+java.lang.System.out.println('WASBUILDER-CONFIGCHANGES %d' % changes)
@@ -0,0 +1,56 @@
+#
+# Runs a script once per parameter set, in the same wsadmin JVM.
+#
+# Expected variables:
+#   SCRIPT          path of the script to run
+#   PARAMETER_SETS  list of parameter sets (each one being a list of strings)
+#
+# Each run gets its own namespace (initialized with the wsadmin objects and
+# whatever the profile scripts have defined) and its own sys.argv. Unsaved
+# configuration changes are discarded after a failed run, so that they don't
+# leak into the next one.
+#
+# For each parameter set, the following line is printed:
+#   WASBUILDER-BATCH <index> <ok|failed> <duration in ms>
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import sys
+import traceback
+import java.lang.System
+
+baseNamespace = globals().copy()
+for name in ['SCRIPT', 'PARAMETER_SETS']:
+    if baseNamespace.has_key(name):
+        del baseNamespace[name]
+
+index = 0
+for parameters in PARAMETER_SETS:
+    index = index + 1
+    java.lang.System.out.println('')
+    java.lang.System.out.println('===== Parameter set %d/%d: %s =====' % (index, len(PARAMETER_SETS), ' '.join(parameters)))
+
+    namespace = baseNamespace.copy()
+    namespace['__name__'] = '__main__'
+    sys.argv = list(parameters)
+
+    start = java.lang.System.currentTimeMillis()
+    status = 'ok'
+    try:
+        execfile(SCRIPT, namespace)
+    except SystemExit, e:
+        if e.code:
+            status = 'failed'
+    except:
+        traceback.print_exc()
+        status = 'failed'
+    duration = java.lang.System.currentTimeMillis() - start
+
+    if status != 'ok':
+        try:
+            AdminConfig.reset()
+        except:
+            pass
+
+    java.lang.System.out.println('WASBUILDER-BATCH %d %s %d' % (index, status, duration))
@@ -0,0 +1,64 @@
+#
+# Profile script making AdminConfig.save() report, instead of just failing,
+# when documents it modifies have been saved by another session in the
+# meantime (rollbackOnConflict, the default save mode of WAS), so that the
+# build step can run the whole script again in a new session.
+#
+# When a save conflict occurs, the following line is printed:
+#   WASBUILDER-SAVECONFLICT <message>
+# If the script has already performed runtime operations through
+# AdminControl (which running it again would repeat), the following line is
+# printed too, so that the script isn't run again:
+#   WASBUILDER-RUNTIMECHANGED <operation>,<operation>,...
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import sys
+import java.lang.System
+
+# AdminControl methods which act on the running cell
+RUNTIME_OPERATIONS = ['invoke', 'invoke_jmx', 'setAttribute', 'setAttribute_jmx', 'setAttributes', 'setAttributes_jmx', 'startServer', 'stopServer']
+
+wasbuilderRuntimeOperations = []
+
+class ConflictAwareAdminConfig:
+    def __init__(self, adminConfig):
+        self.__dict__['_adminConfig'] = adminConfig
+
+    def __getattr__(self, name):
+        return getattr(self._adminConfig, name)
+
+    def save(self):
+        try:
+            return self._adminConfig.save()
+        except:
+            message = str(sys.exc_info()[1])
+            if message.find('onflict') >= 0:
+                java.lang.System.out.println('WASBUILDER-SAVECONFLICT %s' % ' '.join(message.split()))
+                if wasbuilderRuntimeOperations:
+                    java.lang.System.out.println('WASBUILDER-RUNTIMECHANGED %s' % ','.join(wasbuilderRuntimeOperations))
+            raise
+
+class RuntimeOperation:
+    def __init__(self, name, method):
+        self.name = name
+        self.method = method
+
+    def __call__(self, *args):
+        if self.name not in wasbuilderRuntimeOperations:
+            wasbuilderRuntimeOperations.append(self.name)
+        return apply(self.method, args)
+
+class RuntimeTrackingAdminControl:
+    def __init__(self, adminControl):
+        self.__dict__['_adminControl'] = adminControl
+
+    def __getattr__(self, name):
+        method = getattr(self._adminControl, name)
+        if name in RUNTIME_OPERATIONS:
+            return RuntimeOperation(name, method)
+        return method
+
+AdminConfig = ConflictAwareAdminConfig(AdminConfig)
+AdminControl = RuntimeTrackingAdminControl(AdminControl)
@@ -0,0 +1,56 @@
+#
+# Prints the paths of the logs (SystemOut, SystemErr and FFDC) of all the
+# application servers of the cell wsadmin is connected to.
+#
+# For each application server, the following lines are printed:
+#   WASBUILDER-LOG <node>/<server> <path of SystemOut/SystemErr>
+#   WASBUILDER-FFDC <node>/<server> <path of the FFDC folder>
+#
+# Variables are expanded by the server itself or, if it isn't running, by the
+# node agent of its node.
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import java.lang.System
+
+def printMarker(type, member, path):
+    java.lang.System.out.println('WASBUILDER-%s %s %s' % (type, member, path))
+
+def configIds(type, scope=None):
+    if scope:
+        ids = AdminConfig.list(type, scope)
+    else:
+        ids = AdminConfig.list(type)
+    return [id.strip() for id in ids.splitlines() if id.strip()]
+
+def expand(nodeName, serverName, value):
+    for process in [serverName, 'nodeagent']:
+        adminOperations = AdminControl.completeObjectName('type=AdminOperations,process=%s,node=%s,*' % (process, nodeName))
+        if adminOperations:
+            if process != serverName:
+                value = value.replace('${SERVER_LOG_ROOT}', '${LOG_ROOT}/' + serverName)
+            try:
+                return AdminControl.invoke(adminOperations, 'expandVariable', value)
+            except:
+                pass
+    return None
+
+for node in configIds('Node'):
+    nodeName = AdminConfig.showAttribute(node, 'name')
+    for server in configIds('Server', node):
+        if AdminConfig.showAttribute(server, 'serverType') != 'APPLICATION_SERVER':
+            continue
+        serverName = AdminConfig.showAttribute(server, 'name')
+        member = '%s/%s' % (nodeName, serverName)
+
+        for stream in ['outputStreamRedirect', 'errorStreamRedirect']:
+            redirect = AdminConfig.showAttribute(server, stream)
+            if redirect:
+                path = expand(nodeName, serverName, AdminConfig.showAttribute(redirect, 'fileName'))
+                if path:
+                    printMarker('LOG', member, path)
+
+        path = expand(nodeName, serverName, '${LOG_ROOT}/ffdc')
+        if path:
+            printMarker('FFDC', member, path)
@@ -0,0 +1,53 @@
+#
+# Synchronizes, in parallel, all the nodes of the cell wsadmin is connected to.
+#
+# Expected variables:
+#   CONCURRENCY  maximum number of nodes to be synchronized at the same time
+#
+# For each node, the following line is printed:
+#   WASBUILDER-NODESYNC <node> <true|false|error> <duration in ms>
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import java.lang.System
+import java.lang.Runnable
+import java.lang.Thread
+import java.util.Collections
+import java.util.LinkedList
+
+def nodeName(objectName):
+    for key in objectName.split(':', 1)[1].split(','):
+        if key.startswith('node='):
+            return key[5:]
+    return objectName
+
+nodeSyncs = java.util.Collections.synchronizedList(java.util.LinkedList())
+for objectName in AdminControl.queryNames('type=NodeSync,*').splitlines():
+    if objectName.strip():
+        nodeSyncs.add(objectName.strip())
+
+class NodeSyncWorker(java.lang.Runnable):
+    def run(self):
+        while 1:
+            try:
+                objectName = nodeSyncs.remove(0)
+            except:
+                return
+            start = java.lang.System.currentTimeMillis()
+            try:
+                result = str(AdminControl.invoke(objectName, 'sync'))
+            except:
+                result = 'error'
+            duration = java.lang.System.currentTimeMillis() - start
+            java.lang.System.out.println('WASBUILDER-NODESYNC %s %s %d' % (nodeName(objectName), result, duration))
+
+java.lang.System.out.println('Synchronizing %d node(s), %d at a time...' % (nodeSyncs.size(), CONCURRENCY))
+
+workers = []
+for i in range(min(CONCURRENCY, nodeSyncs.size())):
+    worker = java.lang.Thread(NodeSyncWorker(), 'node-sync-%d' % i)
+    worker.start()
+    workers.append(worker)
+for worker in workers:
+    worker.join()
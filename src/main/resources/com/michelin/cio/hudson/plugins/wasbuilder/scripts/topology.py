@@ -0,0 +1,36 @@
+#
+# Prints the topology of the cell wsadmin is connected to.
+#
+# For each element of the cell, one of the following lines is printed:
+#   WASBUILDER-NODE <node>
+#   WASBUILDER-SERVER <node>/<server>
+#   WASBUILDER-CLUSTER <cluster>
+#   WASBUILDER-APP <application>
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import java.lang.System
+
+def printMarker(type, name):
+    java.lang.System.out.println('WASBUILDER-%s %s' % (type, name))
+
+def configIds(type, scope=None):
+    if scope:
+        ids = AdminConfig.list(type, scope)
+    else:
+        ids = AdminConfig.list(type)
+    return [id.strip() for id in ids.splitlines() if id.strip()]
+
+for node in configIds('Node'):
+    nodeName = AdminConfig.showAttribute(node, 'name')
+    printMarker('NODE', nodeName)
+    for server in configIds('Server', node):
+        printMarker('SERVER', '%s/%s' % (nodeName, AdminConfig.showAttribute(server, 'name')))
+
+for cluster in configIds('ServerCluster'):
+    printMarker('CLUSTER', AdminConfig.showAttribute(cluster, 'name'))
+
+for application in AdminApp.list().splitlines():
+    if application.strip():
+        printMarker('APP', application.strip())
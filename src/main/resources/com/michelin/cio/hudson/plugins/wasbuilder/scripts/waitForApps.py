@@ -0,0 +1,90 @@
+#
+# Waits for applications (and, optionally, for an HTTP URL) to be ready, polling
+# with an adaptive backoff: The polling delay is doubled each time nothing has
+# changed, and reset as soon as something has become ready.
+#
+# Expected variables:
+#   APPLICATIONS  names of the applications to wait for
+#   URL           URL to wait for once the applications are ready, or None
+#   TIMEOUT       maximum time to wait, in seconds
+#
+# The following lines are printed:
+#   WASBUILDER-READY <application|url> <elapsed time in ms>
+#   WASBUILDER-NOTREADY <application|url>
+#
+# This script must remain compatible with Jython 2.1 (WAS 6.x).
+#
+
+import java.lang.System
+import java.lang.Thread
+import java.net.URL
+import java.net.URLConnection
+
+MIN_DELAY = 500
+MAX_DELAY = 15000
+
+start = java.lang.System.currentTimeMillis()
+deadline = start + TIMEOUT * 1000
+
+def elapsed():
+    return java.lang.System.currentTimeMillis() - start
+
+def isAppReady(application):
+    try:
+        if str(AdminApp.isAppReady(application)) != 'true':
+            return 0
+        # the application is distributed: is it started somewhere?
+        return AdminControl.completeObjectName('type=Application,name=%s,*' % application) != ''
+    except:
+        return 0
+
+# URLConnection.setConnectTimeout()/setReadTimeout() only exist since Java 5:
+# With older JVMs (WAS 6.0 ships Java 1.4), we fall back to the socket
+# timeouts of the JDK protocol handlers, which must be set before the first
+# connection is opened
+if not hasattr(java.net.URLConnection, 'setConnectTimeout'):
+    java.lang.System.setProperty('sun.net.client.defaultConnectTimeout', str(MAX_DELAY))
+    java.lang.System.setProperty('sun.net.client.defaultReadTimeout', str(MAX_DELAY))
+
+def isUrlReady(url):
+    try:
+        connection = java.net.URL(url).openConnection()
+        if hasattr(connection, 'setConnectTimeout'):
+            connection.setConnectTimeout(MAX_DELAY)
+            connection.setReadTimeout(MAX_DELAY)
+        try:
+            status = connection.getResponseCode()
+        finally:
+            connection.disconnect()
+        return status >= 200 and status < 400
+    except:
+        return 0
+
+def waitFor(names, isReady):
+    delay = MIN_DELAY
+    pending = list(names)
+    while pending:
+        stillPending = []
+        for name in pending:
+            if isReady(name):
+                java.lang.System.out.println('WASBUILDER-READY %s %d' % (name, elapsed()))
+            else:
+                stillPending.append(name)
+
+        if len(stillPending) < len(pending):
+            delay = MIN_DELAY
+        else:
+            delay = min(delay * 2, MAX_DELAY)
+        pending = stillPending
+
+        remaining = deadline - java.lang.System.currentTimeMillis()
+        if pending and remaining <= 0:
+            for name in pending:
+                java.lang.System.out.println('WASBUILDER-NOTREADY %s' % name)
+            return 0
+        if pending:
+            java.lang.Thread.sleep(min(delay, remaining))
+    return 1
+
+if waitFor(APPLICATIONS, isAppReady) and URL:
+    waitFor([URL], isUrlReady)
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import com.michelin.cio.hudson.plugins.wasbuilder.DeploymentLedger.Deployment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class DeploymentLedgerTest extends TestCase {
+
+    private File file;
+    private DeploymentLedger ledger;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("deployments", ".log");
+        file.delete();
+        ledger = new DeploymentLedger(file);
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static Deployment deployment(String server, String application, String version, int number, boolean success) {
+        return new Deployment(server, application, version, null, "project", number, 1000L * number, 10, success);
+    }
+
+    public void testLatestIsTheLatestSuccess() {
+        ledger.record(deployment("was1", "app", "1.0", 1, true));
+        ledger.record(deployment("was1", "app", "1.1", 2, false));
+        ledger.record(deployment("was1", "app", "1.2", 3, false));
+        ledger.record(deployment("was2", "app", "2.0", 4, true));
+
+        assertEquals("1.0", ledger.getLatest("was1", "app").getVersion());
+        assertEquals("2.0", ledger.getLatest("was2", "app").getVersion());
+        assertNull(ledger.getLatest("was1", "other"));
+        assertNull(ledger.getLatest("was3", "app"));
+
+        List<Deployment> failures = ledger.getFailures("was1");
+        assertEquals(2, failures.size());
+        assertEquals("1.2", failures.get(0).getVersion());
+        assertEquals("1.1", failures.get(1).getVersion());
+        assertTrue(ledger.getFailures("was2").isEmpty());
+
+        assertEquals(3, ledger.getHistory("was1", "app").size());
+        assertEquals("1.2", ledger.getHistory("was1", "app").get(0).getVersion());
+        assertEquals("[was1, was2]", ledger.getServers().toString());
+    }
+
+    public void testLatestOfEachApplication() {
+        ledger.record(deployment("was1", "b", "1", 1, true));
+        ledger.record(deployment("was1", "a", "2", 2, true));
+        ledger.record(deployment("was1", "c", "3", 3, false));
+
+        // sorted by application, without the ones never deployed successfully
+        List<Deployment> latest = ledger.getLatest("was1");
+        assertEquals(2, latest.size());
+        assertEquals("a", latest.get(0).getApplication());
+        assertEquals("b", latest.get(1).getApplication());
+    }
+
+    public void testHistoryKeepsTheLatestSuccess() {
+        ledger.record(deployment("was1", "app", "good", 0, true));
+        for(int i = 1; i <= DeploymentLedger.HISTORY_SIZE + 10; i++) {
+            ledger.record(deployment("was1", "app", "bad" + i, i, false));
+        }
+
+        List<Deployment> history = ledger.getHistory("was1", "app");
+        assertEquals(DeploymentLedger.HISTORY_SIZE, history.size());
+        assertEquals("bad" + (DeploymentLedger.HISTORY_SIZE + 10), history.get(0).getVersion());
+        // the oldest failures went, not the latest success
+        assertEquals("good", history.get(history.size() - 1).getVersion());
+        assertEquals("good", ledger.getLatest("was1", "app").getVersion());
+    }
+
+    public void testReload() {
+        ledger.record(deployment("was1", "app", "1.0", 1, true));
+        ledger.record(deployment("was1", "app", "1.1", 2, false));
+
+        DeploymentLedger reloaded = new DeploymentLedger(file);
+        assertEquals("1.0", reloaded.getLatest("was1", "app").getVersion());
+        assertEquals(1, reloaded.getFailures("was1").size());
+        assertEquals(2, reloaded.getHistory("was1", "app").size());
+    }
+
+    public void testInvalidLinesAreSkipped() throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(deployment("was1", "app", "1.0", 1, true).toJSON().toString() + "\n");
+            writer.write("\n");
+            writer.write("{\"server\": \"was1\"}\n");
+            writer.write("{\"server\": \"was1\", \"applicat");
+        }
+        finally {
+            writer.close();
+        }
+
+        assertEquals(1, ledger.getHistory("was1", "app").size());
+        assertEquals("1.0", ledger.getLatest("was1", "app").getVersion());
+    }
+
+    public void testCompaction() throws IOException {
+        int count = DeploymentLedger.HISTORY_SIZE + DeploymentLedger.COMPACTION_THRESHOLD;
+        for(int i = 0; i < count - 1; i++) {
+            ledger.record(deployment("was1", "app", Integer.toString(i), i, true));
+        }
+        assertEquals(count - 1, countLines());
+
+        // the deployments which have been dropped from the index go
+        ledger.record(deployment("was1", "app", Integer.toString(count - 1), count - 1, true));
+        assertEquals(DeploymentLedger.HISTORY_SIZE, countLines());
+
+        DeploymentLedger reloaded = new DeploymentLedger(file);
+        List<Deployment> history = reloaded.getHistory("was1", "app");
+        assertEquals(DeploymentLedger.HISTORY_SIZE, history.size());
+        assertEquals(Integer.toString(count - 1), history.get(0).getVersion());
+        assertEquals(Integer.toString(count - DeploymentLedger.HISTORY_SIZE), history.get(history.size() - 1).getVersion());
+    }
+
+    private int countLines() throws IOException {
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            while(reader.readLine() != null) {
+                lines++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class DesiredStateTest extends TestCase {
+
+    public void testParse() {
+        DesiredState state = DesiredState.parse(
+                "# JVM of server1\r\n"
+                + "[/Node:node1/Server:server1/JavaProcessDef:/JavaVirtualMachine:]\r\n"
+                + "initialHeapSize = 512\r\n"
+                + "maximumHeapSize=1024\r\n"
+                + "\r\n"
+                + "[ /Cell:cell1/ ]\r\n"
+                + "description = a = b\r\n");
+
+        List<DesiredState.ConfigObject> objects = state.getObjects();
+        assertEquals(2, objects.size());
+
+        DesiredState.ConfigObject jvm = objects.get(0);
+        assertEquals("/Node:node1/Server:server1/JavaProcessDef:/JavaVirtualMachine:/", jvm.getPath());
+        assertEquals("/Node:node1/Server:server1/JavaProcessDef:/", jvm.getParentPath());
+        assertEquals("JavaVirtualMachine", jvm.getType());
+        assertEquals("", jvm.getName());
+        assertEquals("{initialHeapSize=512, maximumHeapSize=1024}", jvm.getAttributes().toString());
+
+        DesiredState.ConfigObject cell = objects.get(1);
+        assertEquals("/Cell:cell1/", cell.getPath());
+        assertNull(cell.getParentPath());
+        assertEquals("Cell", cell.getType());
+        assertEquals("cell1", cell.getName());
+        assertEquals("a = b", cell.getAttributes().get("description"));
+    }
+
+    public void testSectionsOfTheSameObjectAreMerged() {
+        DesiredState state = DesiredState.parse(
+                "[/Cell:cell1]\n"
+                + "a = 1\n"
+                + "[/Cell:cell1/]\n"
+                + "a = 2\n"
+                + "b = 3\n");
+        assertEquals(1, state.getObjects().size());
+        assertEquals("{a=2, b=3}", state.getObjects().get(0).getAttributes().toString());
+    }
+
+    public void testToScriptVariable() {
+        DesiredState state = DesiredState.parse("[/Cell:cell1/Node:node1]\nb = 2\n");
+        List<List<Object>> variable = state.toScriptVariable();
+        assertEquals(1, variable.size());
+        assertEquals("[/Cell:cell1/Node:node1/, /Cell:cell1/, Node, node1, {b=2}]", variable.get(0).toString());
+    }
+
+    public void testErrors() {
+        assertError("line 2: missing ']'", "# comment\n[/Cell:cell1\n");
+        assertError("line 1: attribute outside of any [containment path] section", "a = 1\n");
+        assertError("line 2: expected <attribute> = <value>", "[/Cell:cell1]\nno value\n");
+        assertError("line 2: expected <attribute> = <value>", "[/Cell:cell1]\n= 1\n");
+        assertError("line 1: the containment path must start with '/'", "[Cell:cell1]\n");
+        assertError("line 1: the containment path must start with '/'", "[]\n");
+        assertError("line 1: expected <type>:<name> instead of 'node1'", "[/Cell:cell1/node1]\n");
+        assertError("line 1: expected <type>:<name> instead of ':node1'", "[/:node1]\n");
+    }
+
+    private static void assertError(String error, String content) {
+        try {
+            DesiredState.parse(content);
+            fail(content + " should not be parsed");
+        }
+        catch(IllegalArgumentException iae) {
+            assertEquals(error, iae.getMessage());
+        }
+    }
+
+}
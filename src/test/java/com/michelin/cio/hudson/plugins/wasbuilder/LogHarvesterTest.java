@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class LogHarvesterTest extends TestCase {
+
+    public void testReserveTakesWholeFilesOnly() {
+        AtomicLong budget = new AtomicLong(100);
+        assertTrue(LogHarvester.reserve(budget, 60));
+        assertEquals(40, budget.get());
+        // doesn't fit: the budget is left untouched for smaller files
+        assertFalse(LogHarvester.reserve(budget, 50));
+        assertEquals(40, budget.get());
+        assertTrue(LogHarvester.reserve(budget, 40));
+        assertEquals(0, budget.get());
+        assertFalse(LogHarvester.reserve(budget, 1));
+    }
+
+    public void testReserveWithAnExhaustedBudget() {
+        // the logs archived by the previous build steps may exceed the limit
+        AtomicLong budget = new AtomicLong(-10);
+        assertFalse(LogHarvester.reserve(budget, 0));
+        assertEquals(-10, budget.get());
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ResultsChannelTest extends TestCase {
+
+    private LinkedHashMap<String,String> results;
+
+    @Override
+    protected void setUp() {
+        results = new LinkedHashMap<String,String>();
+    }
+
+    public void testKeyValue() {
+        ResultsChannel.parse("version = 1.2.3", results);
+        ResultsChannel.parse("url=http://host:9080/app?a=b", results);
+        assertEquals("1.2.3", results.get("version"));
+        assertEquals("http://host:9080/app?a=b", results.get("url"));
+    }
+
+    public void testJSON() {
+        ResultsChannel.parse("{\"version\": \"1.2.3\", \"instances\": 4}", results);
+        assertEquals("1.2.3", results.get("version"));
+        assertEquals("4", results.get("instances"));
+    }
+
+    public void testInvalidLinesAreIgnored() {
+        ResultsChannel.parse("no pair here", results);
+        ResultsChannel.parse("=value", results);
+        ResultsChannel.parse("{not json", results);
+        assertTrue(results.isEmpty());
+    }
+
+    public void testLatestValueWinsAndMovesLast() {
+        ResultsChannel.parse("a=1", results);
+        ResultsChannel.parse("b=2", results);
+        ResultsChannel.parse("a=3", results);
+        assertEquals("[b, a]", results.keySet().toString());
+        assertEquals("3", results.get("a"));
+    }
+
+    public void testLimits() {
+        StringBuilder value = new StringBuilder();
+        for(int i = 0; i < 5000; i++) {
+            value.append('x');
+        }
+        ResultsChannel.parse("long=" + value, results);
+        assertEquals(4096, results.get("long").length());
+
+        for(int i = 0; i < 1100; i++) {
+            ResultsChannel.parse("key" + i + "=" + i, results);
+        }
+        assertEquals(1000, results.size());
+        assertFalse(results.containsKey("key1099"));
+        // known keys can still be updated
+        ResultsChannel.parse("key0=updated", results);
+        assertEquals("updated", results.get("key0"));
+    }
+
+    public void testReadsTheWholeFile() throws IOException {
+        File file = File.createTempFile("wasbuilder", ".results");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write("version=1.2.3\n");
+                writer.write("Not a result\r\n");
+                writer.write("status = ok");
+            }
+            finally {
+                writer.close();
+            }
+
+            LinkedHashMap<String,String> read = new ResultsChannel.Read().invoke(file, null);
+            assertEquals("[version, status]", read.keySet().toString());
+            assertEquals("1.2.3", read.get("version"));
+            assertEquals("ok", read.get("status"));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import hudson.model.BooleanParameterValue;
+import hudson.model.ParametersAction;
+import hudson.util.VariableResolver;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class RunIfExpressionTest extends TestCase {
+
+    private List<ParametersAction> parameters;
+    private Map<String,String> variables;
+    private Map<String,String> env;
+
+    @Override
+    protected void setUp() {
+        parameters = Collections.singletonList(new ParametersAction(
+                new BooleanParameterValue("DEPLOY", true),
+                new BooleanParameterValue("ROLLBACK", false)));
+        variables = new HashMap<String,String>();
+        variables.put("TARGET", "production");
+        variables.put("OTHER_TARGET", "production");
+        variables.put("EMPTY", " ");
+        env = new HashMap<String,String>();
+        env.put("JAVA_HOME", "");
+    }
+
+    private boolean evaluate(String expression) {
+        return RunIfExpression.compile(expression).evaluate(parameters, new VariableResolver.ByMap<String>(variables), env);
+    }
+
+    public void testSingleName() {
+        assertTrue(evaluate("DEPLOY"));
+        assertFalse(evaluate("ROLLBACK"));
+        assertTrue(evaluate("TARGET"));
+        assertFalse(evaluate("EMPTY"));
+        assertTrue(evaluate("JAVA_HOME"));
+        assertFalse(evaluate("UNDEFINED"));
+    }
+
+    public void testDollarForms() {
+        assertTrue(evaluate("$DEPLOY"));
+        assertTrue(evaluate("${DEPLOY}"));
+        assertFalse(evaluate("${ROLLBACK}"));
+        assertTrue(evaluate("$TARGET == 'production'"));
+    }
+
+    public void testComparisons() {
+        assertTrue(evaluate("TARGET == 'production'"));
+        assertTrue(evaluate("TARGET == \"production\""));
+        assertFalse(evaluate("TARGET != 'production'"));
+        assertTrue(evaluate("TARGET == OTHER_TARGET"));
+        assertTrue(evaluate("UNDEFINED == ''"));
+        assertTrue(evaluate("DEPLOY == 'true'"));
+    }
+
+    public void testOperators() {
+        assertTrue(evaluate("DEPLOY && !ROLLBACK"));
+        assertFalse(evaluate("DEPLOY && ROLLBACK"));
+        assertTrue(evaluate("ROLLBACK || DEPLOY"));
+        assertTrue(evaluate("!!DEPLOY"));
+        // && binds tighter than ||
+        assertTrue(evaluate("DEPLOY || ROLLBACK && UNDEFINED"));
+        assertFalse(evaluate("(DEPLOY || ROLLBACK) && UNDEFINED"));
+        assertTrue(evaluate("!(TARGET == 'test') && DEPLOY"));
+    }
+
+    public void testGetNames() {
+        assertEquals(
+                new HashSet<String>(Arrays.asList("DEPLOY", "TARGET", "OTHER")),
+                RunIfExpression.compile("DEPLOY && (TARGET == 'x' || ${OTHER} != TARGET)").getNames());
+    }
+
+    public void testErrors() {
+        assertError("column 10: unexpected end of the expression", "DEPLOY &&");
+        assertError("column 8: expected ')'", "(DEPLOY");
+        assertError("column 11: unterminated string", "TARGET == 'production");
+        assertError("column 9: expected '}'", "${DEPLOY");
+        assertError("column 8: unexpected 'T'", "DEPLOY TARGET");
+        assertError("column 1: expected a name or a quoted string instead of '='", "== 'x'");
+    }
+
+    private static void assertError(String error, String expression) {
+        try {
+            RunIfExpression.compile(expression);
+            fail(expression + " should not compile");
+        }
+        catch(IllegalArgumentException iae) {
+            assertEquals(error, iae.getMessage());
+        }
+    }
+
+    public void testCompileLeniently() {
+        RunIfExpression valid = RunIfExpression.compileLeniently("DEPLOY && !ROLLBACK");
+        assertNull(valid.getError());
+
+        RunIfExpression invalid = RunIfExpression.compileLeniently("DEPLOY TARGET");
+        assertEquals("column 8: unexpected 'T'", invalid.getError());
+        assertEquals(Collections.singleton("DEPLOY TARGET"), invalid.getNames());
+        assertFalse(invalid.evaluate(parameters, new VariableResolver.ByMap<String>(variables), env));
+        variables.put("DEPLOY TARGET", "yes");
+        assertTrue(invalid.evaluate(parameters, new VariableResolver.ByMap<String>(variables), env));
+    }
+
+}
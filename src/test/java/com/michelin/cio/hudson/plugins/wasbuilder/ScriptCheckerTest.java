@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ScriptCheckerTest extends TestCase {
+
+    public void testValidJython() {
+        assertNull(ScriptChecker.checkJython(
+                "# deploys the application\n"
+                + "def deploy(name, path):\n"
+                + "    if AdminApp.list().find(name) >= 0:\n"
+                + "        AdminApp.update(name, 'app', ['-operation', 'update',\n"
+                + "                                      '-contents', path])\n"
+                + "    else:\n"
+                + "        AdminApp.install(path, '[-appname %s]' % name)\n"
+                + "\n"
+                + "text = '''a multi-line\n"
+                + "string with an unbalanced ( bracket'''\n"
+                + "deploy('app', \"/tmp/app.ear\")\n"
+                + "AdminConfig.save()\n"));
+    }
+
+    public void testJythonUnterminatedString() {
+        assertEquals("line 2: EOL while scanning string literal", ScriptChecker.checkJython("print 'ok'\nprint 'ko\n"));
+    }
+
+    public void testJythonUnterminatedTripleQuotedString() {
+        assertEquals("line 1: EOF while scanning triple-quoted string", ScriptChecker.checkJython("x = \"\"\"never\nclosed\n"));
+    }
+
+    public void testJythonUnclosedBracket() {
+        assertEquals("line 1: '(' was never closed", ScriptChecker.checkJython("AdminApp.install(path,\n    options\n"));
+    }
+
+    public void testJythonMismatchedBracket() {
+        assertEquals("line 1: '[' closed by ')'", ScriptChecker.checkJython("x = [1, 2)\n"));
+    }
+
+    public void testJythonUnexpectedIndent() {
+        assertEquals("line 2: unexpected indent", ScriptChecker.checkJython("x = 1\n    y = 2\n"));
+    }
+
+    public void testJythonMissingBlock() {
+        assertEquals("line 2: expected an indented block", ScriptChecker.checkJython("if x:\nprint x\n"));
+    }
+
+    public void testJythonInconsistentUnindent() {
+        assertEquals("line 4: unindent does not match any outer indentation level", ScriptChecker.checkJython("if x:\n    if y:\n        print y\n  print x\n"));
+    }
+
+    public void testJythonLineContinuation() {
+        assertNull(ScriptChecker.checkJython("x = 1 + \\\n        2\nprint x\n"));
+    }
+
+    public void testValidJacl() {
+        assertNull(ScriptChecker.checkJacl(
+                "# deploys the application\n"
+                + "set apps [$AdminApp list]\n"
+                + "if {[lsearch $apps \"app\"] >= 0} {\n"
+                + "    $AdminApp update app app {-operation update -contents /tmp/app.ear}\n"
+                + "} else {\n"
+                + "    $AdminApp install /tmp/app.ear {-appname app}\n"
+                + "}\n"
+                + "$AdminConfig save\n"));
+    }
+
+    public void testJaclMissingCloseBrace() {
+        assertEquals("line 1: missing close-brace", ScriptChecker.checkJacl("if {$x} {\n    puts $x\n"));
+    }
+
+    public void testJaclMissingCloseBracket() {
+        assertEquals("line 1: missing close-bracket", ScriptChecker.checkJacl("set x [list a b\n"));
+    }
+
+    public void testJaclMissingQuote() {
+        assertEquals("line 2: missing \"", ScriptChecker.checkJacl("puts ok\nputs \"ko\n"));
+    }
+
+    public void testJaclExtraCharactersAfterCloseBrace() {
+        assertEquals("line 1: extra characters after close-brace", ScriptChecker.checkJacl("if {$x}{puts $x}\n"));
+    }
+
+    public void testCheckSelectsTheLanguage() {
+        assertNull(ScriptChecker.check(WASBuildStep.LANG_JACL, "puts {it's fine}\n"));
+        assertNotNull(ScriptChecker.check(WASBuildStep.LANG_JYTHON, "puts {it's fine}\n"));
+    }
+
+    public void testCheckCachesNoError() {
+        String script = "print 'cached'\n";
+        assertNull(ScriptChecker.check(WASBuildStep.LANG_JYTHON, script));
+        assertNull(ScriptChecker.check(WASBuildStep.LANG_JYTHON, script));
+    }
+
+}
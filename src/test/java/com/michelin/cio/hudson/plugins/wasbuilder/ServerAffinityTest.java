@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ServerAffinityTest extends TestCase {
+
+    private final static long HOUR = 60 * 60 * 1000L;
+
+    public void testUnknownLatency() {
+        ServerAffinity affinity = new ServerAffinity();
+        assertEquals(-1, affinity.getLatency("dmgr", "node1"));
+        affinity.recordLatency("dmgr", "node1", 40);
+        assertEquals(-1, affinity.getLatency("dmgr", "node2"));
+        assertEquals(-1, affinity.getLatency("other", "node1"));
+    }
+
+    public void testLatencyAverage() {
+        ServerAffinity affinity = new ServerAffinity();
+        affinity.recordLatency("dmgr", "node1", 100);
+        assertEquals(100, affinity.getLatency("dmgr", "node1"));
+        // the former latency weighs 3/4
+        affinity.recordLatency("dmgr", "node1", 200);
+        assertEquals(125, affinity.getLatency("dmgr", "node1"));
+        affinity.recordLatency("dmgr", "node1", 125);
+        assertEquals(125, affinity.getLatency("dmgr", "node1"));
+    }
+
+    public void testUnavailabilityExpires() {
+        ServerAffinity affinity = new ServerAffinity();
+        long now = System.currentTimeMillis();
+        assertFalse(affinity.isUnavailable("dmgr", "node1", now));
+
+        affinity.recordUnavailable("dmgr", "node1");
+        assertTrue(affinity.isUnavailable("dmgr", "node1"));
+        assertTrue(affinity.isUnavailable("dmgr", "node1", now + HOUR - 60000));
+        assertFalse(affinity.isUnavailable("dmgr", "node1", now + HOUR + 60000));
+        assertFalse(affinity.isUnavailable("dmgr", "node2"));
+        assertFalse(affinity.isUnavailable("other", "node1"));
+    }
+
+    public void testLatencyClearsUnavailability() {
+        ServerAffinity affinity = new ServerAffinity();
+        affinity.recordUnavailable("dmgr", "node1");
+        affinity.recordLatency("dmgr", "node1", 10);
+        assertFalse(affinity.isUnavailable("dmgr", "node1"));
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class ShapedLogOutputStreamTest extends TestCase {
+
+    private ByteArrayOutputStream console;
+    private ByteArrayOutputStream archive;
+
+    @Override
+    protected void setUp() {
+        console = new ByteArrayOutputStream();
+        archive = new ByteArrayOutputStream();
+    }
+
+    private String shape(int limit, String... lines) throws IOException {
+        ShapedLogOutputStream out = new ShapedLogOutputStream(new PrintStream(console, true), archive, "wsadmin/console.log.gz", limit);
+        for(String line: lines) {
+            out.write((line + "\n").getBytes());
+        }
+        out.close();
+        return console.toString().replace("\r\n", "\n");
+    }
+
+    /**
+     * Returns lines whose shapes all differ, i.e. which are never collapsed.
+     */
+    private static String[] distinctLines(int count) {
+        String[] lines = new String[count];
+        for(int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder("line ");
+            for(int n = i; ; n = n / 26 - 1) {
+                line.append((char) ('a' + n % 26));
+                if(n < 26) {
+                    break;
+                }
+            }
+            lines[i] = line.toString();
+        }
+        return lines;
+    }
+
+    public void testCollapse() throws IOException {
+        assertEquals(
+                "starting\n"
+                + "copying file 1 of 4\n"
+                + "[... 2 similar line(s) collapsed ...]\n"
+                + "copying file 4 of 4\n"
+                + "done in 12s\n",
+                shape(1000, "starting", "copying file 1 of 4", "copying file 2 of 4", "copying file 3 of 4", "copying file 4 of 4", "done in 12s"));
+    }
+
+    public void testTwoSimilarLinesAreBothShown() throws IOException {
+        assertEquals("node 1 synced\nnode 2 synced\n", shape(1000, "node 1 synced", "node 2 synced"));
+    }
+
+    public void testArchiveIsComplete() throws IOException {
+        shape(1000, "copying file 1", "copying file 2", "copying file 3");
+        assertEquals("copying file 1\ncopying file 2\ncopying file 3\n", archive.toString());
+    }
+
+    public void testRate() throws IOException {
+        // the lines are written well within a second
+        String[] lines = distinctLines(150);
+        String shaped = shape(1000, lines);
+
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            expected.append(lines[i]).append('\n');
+        }
+        expected.append("[... 50 line(s) skipped: No more than 100 lines per second are shown, the full output is archived as wsadmin/console.log.gz ...]\n");
+        assertEquals(expected.toString(), shaped);
+    }
+
+    public void testTail() throws IOException {
+        // 6 lines are shown while wsadmin runs, and the last 2 when it's done
+        String[] lines = distinctLines(10);
+        String shaped = shape(8, lines);
+
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < 6; i++) {
+            expected.append(lines[i]).append('\n');
+        }
+        expected.append("[... 2 line(s) omitted: The full output is archived as wsadmin/console.log.gz ...]\n");
+        expected.append(lines[8]).append('\n');
+        expected.append(lines[9]).append('\n');
+        assertEquals(expected.toString(), shaped);
+    }
+
+    public void testNothingOmittedWithinTheLimit() throws IOException {
+        String[] lines = distinctLines(8);
+        StringBuilder expected = new StringBuilder();
+        for(String line: lines) {
+            expected.append(line).append('\n');
+        }
+        assertEquals(expected.toString(), shape(8, lines));
+    }
+
+}
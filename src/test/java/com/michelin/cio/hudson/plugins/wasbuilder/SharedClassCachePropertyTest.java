@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class SharedClassCachePropertyTest extends TestCase {
+
+    public void testIbmJ9IsSupported() {
+        assertNull(SharedClassCacheProperty.checkVersion(
+                "java version \"1.6.0\"\n"
+                + "Java(TM) SE Runtime Environment (build pxa6460sr9-20110203_03(SR9))\n"
+                + "IBM J9 VM (build 2.4, JRE 1.6.0 IBM J9 2.4 Linux amd64-64 jvmxa6460sr9-20110202_74623 (JIT enabled, AOT enabled)\n"));
+        assertNull(SharedClassCacheProperty.checkVersion(
+                "java version \"1.5.0\"\r\n"
+                + "IBM J9 VM (build 2.3, J2RE 1.5.0 IBM J9 2.3 AIX ppc64-64 j9vmap6423-20080315 (JIT enabled)\r\n"));
+    }
+
+    public void testOtherJvmsAreNotSupported() {
+        // WAS 6.0: no shared class cache before Java 5, even with J9
+        assertEquals("java version \"1.4.2\"", SharedClassCacheProperty.checkVersion(
+                "java version \"1.4.2\"\n"
+                + "Java(TM) 2 Runtime Environment, Standard Edition (build pxp32142-20050929)\n"
+                + "IBM J9SE VM (build 2.2, J2RE 1.4.2 IBM J9 2.2 Linux ppc-32 j9vmxp32142-20050929 (JIT enabled)\n"));
+        assertEquals("java version \"1.4.2\"", SharedClassCacheProperty.checkVersion(
+                "java version \"1.4.2\"\n"
+                + "Classic VM (build 1.4.2, J2RE 1.4.2 IBM build cxia32142-20050609 (JIT enabled: jitc))\n"));
+        // WAS 6.1 on Solaris
+        assertEquals("java version \"1.5.0_13\"", SharedClassCacheProperty.checkVersion(
+                "java version \"1.5.0_13\"\n"
+                + "Java HotSpot(TM) Server VM (build 1.5.0_13-b05, mixed mode)\n"));
+        assertEquals("", SharedClassCacheProperty.checkVersion(""));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class TopologyCacheTest extends TestCase {
+
+    private CellTopology topology;
+
+    @Override
+    protected void setUp() throws IOException {
+        MarkerCollector collector = new MarkerCollector(new ByteArrayOutputStream());
+        collector.write((
+                "WASBUILDER-NODE node1\n"
+                + "WASBUILDER-NODE node2\n"
+                + "WASBUILDER-SERVER node1/server1\n"
+                + "WASBUILDER-SERVER node2/server2\n"
+                + "WASBUILDER-CLUSTER cluster1\n"
+                + "WASBUILDER-APP app-1.0\n").getBytes());
+        collector.close();
+        topology = new CellTopology(collector);
+    }
+
+    public void testKnownNames() {
+        assertNull(TopologyCache.check(topology, "-node node1 -server server1 -cluster cluster1 -app app-1.0"));
+        assertNull(TopologyCache.check(topology, "-nodeName node2 -serverName node2/server2 -appName app-1.0"));
+        assertNull(TopologyCache.check(topology, "-NODE node1"));
+    }
+
+    public void testUnknownNames() {
+        assertEquals("There's no node named node3 in the cell (cf. -node)", TopologyCache.check(topology, "-node node3"));
+        assertEquals("There's no server named server3 in the cell (cf. -server)", TopologyCache.check(topology, "-server server3"));
+        assertEquals("There's no server named node1/server2 in the cell (cf. -server)", TopologyCache.check(topology, "-server node1/server2"));
+        assertEquals("There's no cluster named cluster2 in the cell (cf. -clusterName)", TopologyCache.check(topology, "-clusterName cluster2"));
+        assertEquals("There's no application named app-2.0 in the cell (cf. -app)", TopologyCache.check(topology, "-node node1 -app app-2.0 -node node3"));
+    }
+
+    public void testIgnoredParameters() {
+        // other options, unexpanded variables, option without a value
+        assertNull(TopologyCache.check(topology, "-timeout 30 -target node3"));
+        assertNull(TopologyCache.check(topology, "-app ${APP_NAME} -node $NODE"));
+        assertNull(TopologyCache.check(topology, "-verbose -node"));
+        assertNull(TopologyCache.check(topology, null));
+    }
+
+    public void testUnknownTopology() {
+        assertNull(TopologyCache.check(null, "-node node3"));
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class TraceFileManagerTest extends TestCase {
+
+    private File dir;
+    private File trace;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = File.createTempFile("trace", "");
+        dir.delete();
+        dir.mkdirs();
+        trace = new File(dir, "wsadmin.traceout");
+    }
+
+    @Override
+    protected void tearDown() {
+        for(File f: dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void write(File f, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String gunzip(InputStream in) throws IOException {
+        InputStream gzip = new GZIPInputStream(in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for(int read; (read = gzip.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+        finally {
+            gzip.close();
+        }
+    }
+
+    private static String gunzip(File f) throws IOException {
+        return gunzip(new FileInputStream(f));
+    }
+
+    public void testSmallFileIsNotRotated() throws IOException {
+        write(trace, "short");
+        assertFalse(new TraceFileManager.Rotate(10, 3).invoke(trace, null));
+        assertTrue(trace.exists());
+        assertFalse(TraceFileManager.Rotate.generation(trace, 1).exists());
+    }
+
+    public void testRotation() throws IOException {
+        TraceFileManager.Rotate rotate = new TraceFileManager.Rotate(4, 2);
+
+        write(trace, "run 1");
+        assertTrue(rotate.invoke(trace, null));
+        assertFalse(trace.exists());
+        assertEquals("run 1", gunzip(TraceFileManager.Rotate.generation(trace, 1)));
+
+        write(trace, "run 2");
+        assertTrue(rotate.invoke(trace, null));
+        write(trace, "run 3");
+        assertTrue(rotate.invoke(trace, null));
+
+        // only 2 generations are kept, the latest one first
+        assertEquals("run 3", gunzip(TraceFileManager.Rotate.generation(trace, 1)));
+        assertEquals("run 2", gunzip(TraceFileManager.Rotate.generation(trace, 2)));
+        assertFalse(TraceFileManager.Rotate.generation(trace, 3).exists());
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    public void testCompressTail() throws IOException {
+        write(trace, "0123456789");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TraceFileManager.CompressTail(4, out).invoke(trace, null);
+        assertEquals("6789", gunzip(new ByteArrayInputStream(out.toByteArray())));
+
+        out = new ByteArrayOutputStream();
+        new TraceFileManager.CompressTail(100, out).invoke(trace, null);
+        assertEquals("0123456789", gunzip(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+}
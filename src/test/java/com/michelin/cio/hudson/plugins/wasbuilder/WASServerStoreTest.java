@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Runs within Hudson since {@link WASServer} encrypts the passwords.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WASServerStoreTest extends HudsonTestCase {
+
+    private File folder;
+    private WASServerStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        folder = new File(createTmpDir(), "servers");
+        store = new WASServerStore(folder);
+    }
+
+    private static WASServer server(String name, String host) {
+        return new WASServer("WAS 7.0", name, WASServer.CONNTYPE_SOAP, host, 8879, "admin", "secret", 0, null);
+    }
+
+    private String[] files() {
+        String[] files = folder.list();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private String[] names() {
+        WASServer[] servers = store.getServers();
+        String[] names = new String[servers.length];
+        for(int i = 0; i < servers.length; i++) {
+            names[i] = servers[i].getName();
+        }
+        return names;
+    }
+
+    public void testPutAndGet() throws IOException {
+        store.put(server("was61", "was61.example.com"), server("dmgr", "dmgr.example.com"));
+
+        assertEquals("[dmgr, was61]", Arrays.toString(names()));
+        assertEquals("[dmgr.xml, was61.xml]", Arrays.toString(files()));
+        assertEquals("dmgr.example.com", store.getServer("DMGR").getHost());
+        assertNull(store.getServer("other"));
+        assertNull(store.getServer(null));
+    }
+
+    public void testPutReplacesIgnoringTheCase() throws IOException {
+        store.put(server("dmgr", "dmgr.example.com"));
+        store.put(server("DMGR", "dmgr2.example.com"));
+
+        assertEquals("[DMGR]", Arrays.toString(names()));
+        assertEquals("[DMGR.xml]", Arrays.toString(files()));
+        assertEquals("dmgr2.example.com", store.getServer("dmgr").getHost());
+    }
+
+    public void testRemove() throws IOException {
+        store.put(server("dmgr", "dmgr.example.com"), server("was61", "was61.example.com"));
+
+        assertTrue(store.remove("DMGR"));
+        assertFalse(store.remove("dmgr"));
+        assertEquals("[was61]", Arrays.toString(names()));
+        assertEquals("[was61.xml]", Arrays.toString(files()));
+    }
+
+    public void testReplaceAllOnlyWritesTheChanges() throws IOException {
+        store.put(server("dmgr", "dmgr.example.com"), server("was61", "was61.example.com"), server("was70", "was70.example.com"));
+        File unchanged = new File(folder, "dmgr.xml");
+        assertTrue(unchanged.setLastModified(0));
+
+        store.replaceAll(Arrays.asList(server("dmgr", "dmgr.example.com"), server("was61", "was61-new.example.com")));
+
+        assertEquals("[dmgr.xml, was61.xml]", Arrays.toString(files()));
+        assertEquals(0, unchanged.lastModified());
+        assertEquals("was61-new.example.com", store.getServer("was61").getHost());
+        assertNull(store.getServer("was70"));
+    }
+
+    public void testLoad() throws IOException {
+        store.put(server("dmgr", "dmgr.example.com"), server("was61", "was61.example.com"));
+
+        WASServerStore loaded = new WASServerStore(folder);
+        loaded.load();
+        assertEquals(2, loaded.getServers().length);
+        assertEquals("dmgr.example.com", loaded.getServer("dmgr").getHost());
+        assertEquals("secret", loaded.getServer("dmgr").getPassword());
+    }
+
+}
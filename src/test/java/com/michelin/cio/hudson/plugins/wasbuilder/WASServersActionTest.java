@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.List;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Runs within Hudson since {@link WASServer} encrypts the passwords.
+ *
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WASServersActionTest extends HudsonTestCase {
+
+    public void testParseNewServers() {
+        List<WASServer> servers = WASServersAction.parse(
+                "[{\"name\": \"dmgr\", \"host\": \"dmgr.example.com\", \"port\": 8879, \"user\": \"admin\", \"password\": \"secret\"},"
+                + " {\"name\": \"was61\", \"host\": \"was61.example.com\", \"conntype\": \"RMI\", \"timeout\": 60, \"label\": \"aix\"}]");
+        assertEquals(2, servers.size());
+
+        WASServer dmgr = servers.get(0);
+        assertEquals("dmgr", dmgr.getName());
+        assertEquals("dmgr.example.com", dmgr.getHost());
+        assertEquals(8879, dmgr.getPort());
+        assertEquals(WASServer.CONNTYPE_SOAP, dmgr.getConntype());
+        assertEquals("admin", dmgr.getUser());
+        assertEquals("secret", dmgr.getPassword());
+        assertEquals(0, dmgr.getTimeout());
+        assertNull(dmgr.getLabel());
+
+        WASServer was61 = servers.get(1);
+        assertEquals(WASServer.CONNTYPE_RMI, was61.getConntype());
+        assertEquals(60, was61.getTimeout());
+        assertEquals("aix", was61.getLabel());
+        assertEquals("", was61.getPassword());
+    }
+
+    public void testParseSingleServer() {
+        List<WASServer> servers = WASServersAction.parse("{\"name\": \"dmgr\", \"host\": \"dmgr.example.com\"}");
+        assertEquals(1, servers.size());
+        assertEquals("dmgr", servers.get(0).getName());
+    }
+
+    public void testMergeKeepsTheAbsentFields() {
+        WASServer current = new WASServer("WAS 7.0", "dmgr", WASServer.CONNTYPE_RMI, "dmgr.example.com", 2809, "admin", "secret", 120, "aix");
+
+        WASServer merged = WASServersAction.parse("{\"name\": \"dmgr\", \"port\": 9809}", current).get(0);
+        assertEquals("WAS 7.0", merged.getWasInstallationName());
+        assertEquals(WASServer.CONNTYPE_RMI, merged.getConntype());
+        assertEquals("dmgr.example.com", merged.getHost());
+        assertEquals(9809, merged.getPort());
+        assertEquals("admin", merged.getUser());
+        assertEquals("secret", merged.getPassword());
+        assertEquals(120, merged.getTimeout());
+        assertEquals("aix", merged.getLabel());
+    }
+
+    public void testMergeWithAnExplicitPassword() {
+        WASServer current = new WASServer("WAS 7.0", "dmgr", WASServer.CONNTYPE_SOAP, "dmgr.example.com", 8879, "admin", "secret", 0, null);
+
+        assertEquals("changed", WASServersAction.parse("{\"name\": \"dmgr\", \"password\": \"changed\"}", current).get(0).getPassword());
+        assertEquals("", WASServersAction.parse("{\"name\": \"dmgr\", \"password\": \"\"}", current).get(0).getPassword());
+    }
+
+    public void testMergeIgnoresTheCase() {
+        WASServer current = new WASServer("WAS 7.0", "dmgr", WASServer.CONNTYPE_SOAP, "dmgr.example.com", 8879, "admin", "secret", 0, null);
+
+        WASServer merged = WASServersAction.parse("{\"name\": \"DMGR\", \"timeout\": 30}", current).get(0);
+        assertEquals("DMGR", merged.getName());
+        assertEquals("dmgr.example.com", merged.getHost());
+        assertEquals("admin", merged.getUser());
+        assertEquals("secret", merged.getPassword());
+        assertEquals(30, merged.getTimeout());
+    }
+
+    public void testOtherServersAreNotMerged() {
+        WASServer current = new WASServer("WAS 7.0", "dmgr", WASServer.CONNTYPE_SOAP, "dmgr.example.com", 8879, "admin", "secret", 0, null);
+
+        WASServer other = WASServersAction.parse("{\"name\": \"other\", \"host\": \"other.example.com\"}", current).get(0);
+        assertEquals("", other.getUser());
+        assertEquals("", other.getPassword());
+    }
+
+    public void testErrors() {
+        assertError("A WAS server must have a name", "{\"host\": \"dmgr.example.com\"}");
+        assertError("The WAS server dmgr must have a host", "{\"name\": \"dmgr\"}");
+        assertError("Invalid JSON: Element 1 of the array is not an object", "[{\"name\": \"dmgr\", \"host\": \"dmgr.example.com\"}, \"was61\"]");
+        try {
+            WASServersAction.parse("{\"name\": ");
+            fail("invalid JSON should not be parsed");
+        }
+        catch(IllegalArgumentException iae) {
+            assertTrue(iae.getMessage().startsWith("Invalid JSON: "));
+        }
+    }
+
+    private static void assertError(String error, String json) {
+        try {
+            WASServersAction.parse(json);
+            fail(json + " should not be parsed");
+        }
+        catch(IllegalArgumentException iae) {
+            assertEquals(error, iae.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Manufacture Française des Pneumatiques Michelin,
+ * Romain Seguy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.michelin.cio.hudson.plugins.wasbuilder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * @author Romain Seguy (http://openromain.blogspot.com)
+ */
+public class WsadminWatchdogTest extends TestCase {
+
+    public void testWsadminJvm() {
+        assertTrue(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "/opt/IBM/WebSphere/AppServer/java/bin/java", "-Xms256m",
+                "-classpath", "/opt/IBM/WebSphere/AppServer/lib/bootstrap.jar",
+                "com.ibm.wsspi.bootstrap.WSPreLauncher", "-nosplash", "-application",
+                "com.ibm.ws.bootstrap.WSLauncher", "com.ibm.ws.admin.services.WsAdmin",
+                "-lang", "jython", "-f", "script.py")));
+        assertTrue(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "C:\\IBM\\WebSphere\\AppServer\\java\\bin\\java.exe", "com.ibm.ws.admin.services.WsAdmin")));
+    }
+
+    public void testThinClientJvm() {
+        assertTrue(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "/usr/lib/jvm/java/bin/java", "-classpath", "com.ibm.ws.admin.client_7.0.0.jar",
+                "com.ibm.ws.scripting.WasxShell", "-f", "script.py")));
+    }
+
+    public void testRenamedJvm() {
+        assertTrue(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "/opt/wrapper/wsadmin-jvm", "com.ibm.ws.admin.services.WsAdmin")));
+    }
+
+    public void testShellsAreNotJvms() {
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "/bin/sh", "/opt/IBM/WebSphere/AppServer/bin/wsadmin.sh", "-lang", "jython")));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "/usr/bin/bash", "-c", "java", "com.ibm.ws.admin.services.WsAdmin")));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "-ksh", "com.ibm.ws.scripting.WasxShell")));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList(
+                "C:\\Windows\\System32\\CMD.EXE", "/c", "wsadmin.bat", "com.ibm.ws.admin.services.WsAdmin")));
+    }
+
+    public void testOtherProcesses() {
+        assertFalse(WsadminWatchdog.isWsadminJvm(null));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Collections.<String>emptyList()));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList("java", "-jar", "slave.jar")));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList("com.ibm.ws.admin.services.WsAdmin")));
+        assertFalse(WsadminWatchdog.isWsadminJvm(Arrays.asList("java", "com.ibm.ws.admin.services.WsAdminX")));
+    }
+
+}